@@ -0,0 +1,83 @@
+package net.dryuf.concurrent.executor.benchmark;
+
+import net.dryuf.base.concurrent.executor.ArrayBatchWorkExecutor;
+import net.dryuf.base.concurrent.executor.BatchWorkExecutor;
+import net.dryuf.base.concurrent.executor.ClosingExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Benchmark for BatchWorkExecutor and ArrayBatchWorkExecutor.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(Config.FORK_COUNT)
+@Warmup(iterations = Config.WARMUP_COUNT, time = Config.WARMUP_TIME, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = Config.MEASURE_COUNT, time = Config.MEASURE_TIME, timeUnit = TimeUnit.SECONDS)
+public class BatchWorkExecutorBenchmark
+{
+	public final BatchWorkExecutor<Integer, Integer> batchExecutor = new BatchWorkExecutor<>(
+		new ClosingExecutor(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors())),
+		100,
+		(l) -> {
+			List<CompletableFuture<Integer>> results = new ArrayList<>(l.size());
+			for (Integer v: l) {
+				results.add(CompletableFuture.completedFuture(v));
+			}
+			return results;
+		}
+	);
+
+	public final ArrayBatchWorkExecutor<Integer, Integer> arrayBatchExecutor = new ArrayBatchWorkExecutor<>(
+		new ClosingExecutor(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors())),
+		100,
+		(batch) -> {
+			for (int i = 0, size = batch.size(); i < size; ++i) {
+				batch.complete(i, batch.get(i));
+			}
+		}
+	);
+
+	@TearDown
+	public void teardown()
+	{
+		batchExecutor.close();
+		arrayBatchExecutor.close();
+	}
+
+	@Benchmark
+	public void b0_batch() throws Exception
+	{
+		CompletableFuture<Integer> last = null;
+		for (int i = 0; i < Config.EXECS; ++i) {
+			last = batchExecutor.submit(i);
+		}
+		last.get();
+	}
+
+	@Benchmark
+	public void b1_arrayBatch() throws Exception
+	{
+		CompletableFuture<Integer> last = null;
+		for (int i = 0; i < Config.EXECS; ++i) {
+			last = arrayBatchExecutor.submit(i);
+		}
+		last.get();
+	}
+}
@@ -3,6 +3,8 @@ package net.dryuf.concurrent.executor.benchmark;
 public class Config
 {
 	public static final int EXECS = 1000;
+	public static final int BLOCKING_EXECS = 1000;
+	public static final int BLOCKING_TIME_MS = 1;
 	public static final int FORK_COUNT = 1;
 	public static final int WARMUP_COUNT = 2;
 	public static final int WARMUP_TIME = 2;
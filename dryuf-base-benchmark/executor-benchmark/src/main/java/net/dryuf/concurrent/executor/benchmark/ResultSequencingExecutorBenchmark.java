@@ -0,0 +1,70 @@
+package net.dryuf.concurrent.executor.benchmark;
+
+import net.dryuf.base.concurrent.executor.CapacityResultSequencingExecutor;
+import net.dryuf.base.concurrent.executor.CloseableExecutor;
+import net.dryuf.base.concurrent.executor.ClosingExecutor;
+import net.dryuf.base.concurrent.executor.ResultSequencingExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Benchmark for ResultSequencingExecutor and CapacityResultSequencingExecutor.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(Config.FORK_COUNT)
+@Warmup(iterations = Config.WARMUP_COUNT, time = Config.WARMUP_TIME, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = Config.MEASURE_COUNT, time = Config.MEASURE_TIME, timeUnit = TimeUnit.SECONDS)
+public class ResultSequencingExecutorBenchmark
+{
+	public final CloseableExecutor executor = new ClosingExecutor(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()));
+
+	public final ResultSequencingExecutor resultExecutor = new ResultSequencingExecutor((Executor) executor);
+
+	public final CapacityResultSequencingExecutor capacityExecutor = new CapacityResultSequencingExecutor(Long.MAX_VALUE, Config.EXECS, (Executor) executor);
+
+	@TearDown
+	public void teardown()
+	{
+		resultExecutor.close();
+		capacityExecutor.close();
+		executor.close();
+	}
+
+	@Benchmark
+	public void b0_resultSequencing() throws Exception
+	{
+		CompletableFuture<Integer> last = null;
+		for (int i = 0; i < Config.EXECS; ++i) {
+			int i0 = i;
+			last = resultExecutor.submit(() -> i0, (r) -> r);
+		}
+		last.get();
+	}
+
+	@Benchmark
+	public void b1_capacityResultSequencing() throws Exception
+	{
+		CompletableFuture<Integer> last = null;
+		for (int i = 0; i < Config.EXECS; ++i) {
+			int i0 = i;
+			last = capacityExecutor.submit(1, () -> i0, (r) -> r);
+		}
+		last.get();
+	}
+}
@@ -0,0 +1,90 @@
+package net.dryuf.concurrent.executor.benchmark;
+
+import net.dryuf.base.concurrent.executor.CloseableExecutor;
+import net.dryuf.base.concurrent.executor.CommonPoolExecutor;
+import net.dryuf.base.concurrent.executor.VirtualThreadExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Benchmark for VirtualThreadExecutor, compared to CommonPoolExecutor.  The virtual variant requires Java 21+.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(Config.FORK_COUNT)
+@Warmup(iterations = Config.WARMUP_COUNT, time = Config.WARMUP_TIME, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = Config.MEASURE_COUNT, time = Config.MEASURE_TIME, timeUnit = TimeUnit.SECONDS)
+public class VirtualThreadExecutorBenchmark
+{
+	@Param({ "common", "virtual" })
+	public String executorType;
+
+	public CloseableExecutor executor;
+
+	@Setup
+	public void setup()
+	{
+		executor = executorType.equals("virtual") ? new VirtualThreadExecutor() : CommonPoolExecutor.getInstance();
+	}
+
+	@TearDown
+	public void teardown()
+	{
+		executor.close();
+	}
+
+	@Benchmark
+	public void b0_execute() throws InterruptedException
+	{
+		CountDownLatch latch = new CountDownLatch(Config.EXECS);
+		for (int i = 0; i < Config.EXECS; ++i) {
+			executor.execute(() -> latch.countDown());
+		}
+		latch.await();
+	}
+
+	@Benchmark
+	public void b0_submit() throws Exception
+	{
+		CompletableFuture<Void> futures = CompletableFuture.completedFuture(null);
+		for (int i = 0; i < Config.EXECS; ++i) {
+			futures = executor.submit(() -> null)
+				.runAfterBoth(futures, () -> {});
+		}
+		futures.get();
+	}
+
+	@Benchmark
+	public void b1_executeBlocking() throws InterruptedException
+	{
+		CountDownLatch latch = new CountDownLatch(Config.BLOCKING_EXECS);
+		for (int i = 0; i < Config.BLOCKING_EXECS; ++i) {
+			executor.execute(() -> {
+				try {
+					Thread.sleep(Config.BLOCKING_TIME_MS);
+				}
+				catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				latch.countDown();
+			});
+		}
+		latch.await();
+	}
+}
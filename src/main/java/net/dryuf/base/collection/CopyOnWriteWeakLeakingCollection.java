@@ -1,9 +1,18 @@
 package net.dryuf.base.collection;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
 import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
 
 
 /**
@@ -15,6 +24,16 @@ import java.util.NoSuchElementException;
  * Performance: The Collection is slow and synchronizing at removing or adding items, it is fast to iterate.  It should
  * be used in situations when updates are infrequent.
  *
+ * By default, the leaks are detected only when iterating over the collection.  When constructed with reference queue
+ * enabled, the references are registered with {@link ReferenceQueue} and the leaks are collected in batches, when
+ * adding new items, calling {@link #size()} or explicitly calling {@link #drainLeaks()} (which can be scheduled
+ * periodically, for example via {@link net.dryuf.base.concurrent.future.ScheduledUtil#sharedExecutor()}).  All the
+ * leaked items found are then removed within single array rebuild.
+ *
+ * To find the origin of leak, the collection can record context for each item, either provided by caller via
+ * {@link #add(Object, Object)} or captured as allocation stack trace for sampled 1 of N items added via
+ * {@link #add(Object)}.  The context is passed to leak notifier once the item is detected as leaked.
+ *
  * <pre>
 	private void example()
 	{
@@ -26,6 +45,17 @@ import java.util.NoSuchElementException;
 	{
 		log.severe("Unreleased connection detected in: " + this);
 	}
+
+	private void allocationExample()
+	{
+		Collection&lt;Connection&gt; connections =
+			new CopyOnWriteWeakLeakingCollection&lt;Connection&gt;(this::leakContextDetector, 100, true);
+	}
+
+	private void leakContextDetector(Object context)
+	{
+		log.log(Level.SEVERE, "Unreleased connection detected in: " + this, (Throwable) context);
+	}
  * </pre>
  *
  * @param <E>
@@ -34,12 +64,19 @@ import java.util.NoSuchElementException;
 public class CopyOnWriteWeakLeakingCollection<E> extends AbstractCollection<E>
 {
 	@SuppressWarnings("rawtypes")
-	private static final WeakReference[] EMPTY_ARRAY = new WeakReference[0];
+	private static final ItemReference[] EMPTY_ARRAY = new ItemReference[0];
 
 	@SuppressWarnings("unchecked")
-	private volatile WeakReference<E>[] items = (WeakReference<E>[]) EMPTY_ARRAY;
+	private volatile ItemReference<E>[] items = (ItemReference<E>[]) EMPTY_ARRAY;
+
+	/** Listener receiving context of leaked item, null if not interested. */
+	private final Consumer<Object> leakNotifier;
+
+	/** Sampling of allocation stack traces, capturing one of N items, 0 to disable. */
+	private final int allocationSampling;
 
-	private final Runnable leakNotifier;
+	/** Queue receiving cleared references, null if leaks are detected only by iterating. */
+	private final ReferenceQueue<E> referenceQueue;
 
 	/**
 	 * Constructs new instance.
@@ -49,7 +86,45 @@ public class CopyOnWriteWeakLeakingCollection<E> extends AbstractCollection<E>
 	 */
 	public CopyOnWriteWeakLeakingCollection(Runnable leakNotifier)
 	{
+		this(leakNotifier, false);
+	}
+
+	/**
+	 * Constructs new instance.
+	 *
+	 * @param leakNotifier
+	 *      runnable to notify when leak happens.
+	 * @param referenceQueue
+	 *      indicator whether to detect leaks via {@link ReferenceQueue} instead of only when iterating
+	 */
+	public CopyOnWriteWeakLeakingCollection(Runnable leakNotifier, boolean referenceQueue)
+	{
+		this(leakNotifier == null ? null : (context) -> leakNotifier.run(), 0, referenceQueue);
+	}
+
+	/**
+	 * Constructs new instance, passing the context of leaked item to notifier.
+	 *
+	 * @param leakNotifier
+	 *      consumer to notify when leak happens, receiving the item context or allocation stack trace.  The
+	 *      context is null if not provided by caller and not sampled.
+	 * @param allocationSampling
+	 *      capture allocation stack trace for one of N items added without context, 0 to disable capturing.
+	 * @param referenceQueue
+	 *      indicator whether to detect leaks via {@link ReferenceQueue} instead of only when iterating
+	 */
+	public CopyOnWriteWeakLeakingCollection(
+		Consumer<Object> leakNotifier,
+		int allocationSampling,
+		boolean referenceQueue
+	)
+	{
+		if (allocationSampling < 0) {
+			throw new IllegalArgumentException("allocationSampling must not be negative: "+allocationSampling);
+		}
 		this.leakNotifier = leakNotifier;
+		this.allocationSampling = allocationSampling;
+		this.referenceQueue = referenceQueue ? new ReferenceQueue<>() : null;
 	}
 
 	@SuppressWarnings("ResultOfMethodCallIgnored")
@@ -58,10 +133,12 @@ public class CopyOnWriteWeakLeakingCollection<E> extends AbstractCollection<E>
 	{
 		return new Iterator<E>()
 		{
-			private final WeakReference<E>[] currentItems = items;
+			private final ItemReference<E>[] currentItems = items;
 
 			private int i = 0;
 
+			private int last = -1;
+
 			private E next;
 
 			@Override
@@ -72,12 +149,15 @@ public class CopyOnWriteWeakLeakingCollection<E> extends AbstractCollection<E>
 					if (next != null) {
 						return true;
 					}
+					else if (referenceQueue != null) {
+						++i;
+						drainLeaks();
+					}
 					else {
-						removeReference(currentItems[i]);
+						ItemReference<E> ref = currentItems[i];
+						removeReference(ref);
 						++i;
-						if (leakNotifier != null) {
-							leakNotifier.run();
-						}
+						notifyLeak(ref);
 					}
 				}
 				return false;
@@ -91,7 +171,7 @@ public class CopyOnWriteWeakLeakingCollection<E> extends AbstractCollection<E>
 						throw new NoSuchElementException();
 					}
 				}
-				++i;
+				last = i++;
 				E ret = next;
 				next = null;
 				return ret;
@@ -100,7 +180,11 @@ public class CopyOnWriteWeakLeakingCollection<E> extends AbstractCollection<E>
 			@Override
 			public void remove()
 			{
-				removeReference(currentItems[i]);
+				if (last < 0) {
+					throw new IllegalStateException("next() not called or element already removed");
+				}
+				removeReference(currentItems[last]);
+				last = -1;
 			}
 		};
 	}
@@ -108,18 +192,36 @@ public class CopyOnWriteWeakLeakingCollection<E> extends AbstractCollection<E>
 	@Override
 	public int size()
 	{
+		drainLeaks();
 		return items.length;
 	}
 
 	@Override
-	public synchronized boolean add(E e)
+	public boolean add(E e)
 	{
-		WeakReference<E>[] itemsLocal = items;
-		@SuppressWarnings({"MismatchedReadAndWriteOfArray", "unchecked"})
-		WeakReference<E>[] itemsNew = new WeakReference[itemsLocal.length + 1];
-		System.arraycopy(itemsLocal, 0, itemsNew, 0, itemsLocal.length);
-		itemsNew[itemsLocal.length] = new WeakReference<>(e);
-		items = itemsNew;
+		Object context = null;
+		if (allocationSampling != 0 &&
+			(allocationSampling == 1 || ThreadLocalRandom.current().nextInt(allocationSampling) == 0)) {
+			context = new Throwable("Allocation site of leaked item");
+		}
+		return add(e, context);
+	}
+
+	/**
+	 * Adds new element, associating it with context which is passed to leak notifier if the element leaks.
+	 *
+	 * @param e
+	 * 	element to add
+	 * @param context
+	 * 	context identifying the element origin, must not reference the element itself
+	 *
+	 * @return
+	 * 	false
+	 */
+	public boolean add(E e, Object context)
+	{
+		drainLeaks();
+		addReference(new ItemReference<>(e, referenceQueue, context));
 		return false;
 	}
 
@@ -127,13 +229,83 @@ public class CopyOnWriteWeakLeakingCollection<E> extends AbstractCollection<E>
 	@Override
 	public synchronized void clear()
 	{
-		items = (WeakReference<E>[]) EMPTY_ARRAY;
+		items = (ItemReference<E>[]) EMPTY_ARRAY;
+	}
+
+	/**
+	 * Removes the leaked items reported by reference queue and notifies the listener about them.  Does nothing if
+	 * the collection was not constructed with reference queue.
+	 */
+	public void drainLeaks()
+	{
+		if (referenceQueue == null) {
+			return;
+		}
+		Reference<? extends E> ref = referenceQueue.poll();
+		if (ref == null) {
+			return;
+		}
+		Set<Reference<?>> dead = Collections.newSetFromMap(new IdentityHashMap<>());
+		do {
+			dead.add(ref);
+		} while ((ref = referenceQueue.poll()) != null);
+		for (ItemReference<E> leaked: removeReferences(dead)) {
+			notifyLeak(leaked);
+		}
+	}
+
+	private void notifyLeak(ItemReference<E> ref)
+	{
+		if (leakNotifier != null) {
+			leakNotifier.accept(ref.context);
+		}
+	}
+
+	private synchronized void addReference(ItemReference<E> ref)
+	{
+		ItemReference<E>[] itemsLocal = items;
+		@SuppressWarnings({"MismatchedReadAndWriteOfArray", "unchecked"})
+		ItemReference<E>[] itemsNew = new ItemReference[itemsLocal.length + 1];
+		System.arraycopy(itemsLocal, 0, itemsNew, 0, itemsLocal.length);
+		itemsNew[itemsLocal.length] = ref;
+		items = itemsNew;
+	}
+
+	/**
+	 * Removes dead references, including those already cleared but not yet enqueued.
+	 *
+	 * @param dead
+	 * 	references reported by reference queue
+	 *
+	 * @return
+	 * 	references removed
+	 */
+	@SuppressWarnings("unchecked")
+	private synchronized List<ItemReference<E>> removeReferences(Set<Reference<?>> dead)
+	{
+		ItemReference<E>[] itemsLocal = items;
+		ItemReference<E>[] itemsNew = new ItemReference[itemsLocal.length];
+		ItemReference<E>[] removed = new ItemReference[itemsLocal.length];
+		int count = 0;
+		int removedCount = 0;
+		for (ItemReference<E> ref: itemsLocal) {
+			if (!dead.contains(ref) && ref.get() != null) {
+				itemsNew[count++] = ref;
+			}
+			else {
+				removed[removedCount++] = ref;
+			}
+		}
+		if (removedCount != 0) {
+			items = count == 0 ? (ItemReference<E>[]) EMPTY_ARRAY : Arrays.copyOf(itemsNew, count);
+		}
+		return Arrays.asList(removed).subList(0, removedCount);
 	}
 
 	@SuppressWarnings("UnusedReturnValue")
-	private synchronized boolean removeReference(WeakReference<E> ref)
+	private synchronized boolean removeReference(ItemReference<E> ref)
 	{
-		WeakReference<E>[] itemsLocal = items;
+		ItemReference<E>[] itemsLocal = items;
 		int found;
 		for (found = 0; ; ++found) {
 			if (found >= itemsLocal.length) {
@@ -148,11 +320,28 @@ public class CopyOnWriteWeakLeakingCollection<E> extends AbstractCollection<E>
 		}
 		else {
 			@SuppressWarnings({"unchecked"})
-			WeakReference<E>[] itemsNew = new WeakReference[itemsLocal.length-1];
+			ItemReference<E>[] itemsNew = new ItemReference[itemsLocal.length-1];
 			System.arraycopy(itemsLocal, 0, itemsNew, 0, found);
 			System.arraycopy(itemsLocal, found+1, itemsNew, found, itemsLocal.length-found-1);
 			items = itemsNew;
 		}
 		return true;
 	}
+
+	/**
+	 * Reference to element, holding also context of the element.
+	 *
+	 * @param <E>
+	 *      type of element
+	 */
+	private static class ItemReference<E> extends WeakReference<E>
+	{
+		final Object context;
+
+		public ItemReference(E referent, ReferenceQueue<? super E> queue, Object context)
+		{
+			super(referent, queue);
+			this.context = context;
+		}
+	}
 }
@@ -0,0 +1,192 @@
+package net.dryuf.base.collection;
+
+import java.util.AbstractCollection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+
+
+/**
+ * Collection detecting leaking elements, split into several {@link CopyOnWriteWeakLeakingCollection} stripes.
+ *
+ * The element is assigned to stripe according to its identity hash code, so adding or removing element copies only
+ * the array of single stripe.  This makes the collection suitable for registries holding large number of items,
+ * where single copy-on-write array would make each update too expensive.
+ *
+ * The collection is thread safe.  The iterator goes through the stripes one by one, each of them representing view of
+ * items valid at some point.  The {@link #size()} is sum of sizes of all stripes.
+ *
+ * <pre>
+	private void example()
+	{
+		Collection&lt;Connection&gt; connections =
+			new StripedCopyOnWriteWeakLeakingCollection&lt;Connection&gt;(64, this::leakDetector);
+	}
+
+	private void leakDetector()
+	{
+		log.severe("Unreleased connection detected in: " + this);
+	}
+ * </pre>
+ *
+ * @param <E>
+ *      type of element
+ */
+public class StripedCopyOnWriteWeakLeakingCollection<E> extends AbstractCollection<E>
+{
+	private final CopyOnWriteWeakLeakingCollection<E>[] stripes;
+
+	/**
+	 * Constructs new instance.
+	 *
+	 * @param stripes
+	 *      number of stripes, rounded up to power of two
+	 * @param leakNotifier
+	 *      runnable to notify when leak happens.
+	 */
+	public StripedCopyOnWriteWeakLeakingCollection(int stripes, Runnable leakNotifier)
+	{
+		this(stripes, () -> new CopyOnWriteWeakLeakingCollection<>(leakNotifier));
+	}
+
+	/**
+	 * Constructs new instance.
+	 *
+	 * @param stripes
+	 *      number of stripes, rounded up to power of two
+	 * @param stripeFactory
+	 *      factory creating single stripe
+	 */
+	@SuppressWarnings("unchecked")
+	public StripedCopyOnWriteWeakLeakingCollection(int stripes, Supplier<CopyOnWriteWeakLeakingCollection<E>> stripeFactory)
+	{
+		if (stripes <= 0 || stripes > 1<<30) {
+			throw new IllegalArgumentException("stripes must be between 1 and 2^30: "+stripes);
+		}
+		this.stripes = new CopyOnWriteWeakLeakingCollection[Integer.highestOneBit(stripes*2-1)];
+		for (int i = 0; i < this.stripes.length; ++i) {
+			this.stripes[i] = stripeFactory.get();
+		}
+	}
+
+	@Override
+	public Iterator<E> iterator()
+	{
+		return new Iterator<E>()
+		{
+			private int stripe = 0;
+
+			private Iterator<E> current = Collections.emptyIterator();
+
+			private Iterator<E> last;
+
+			@Override
+			public boolean hasNext()
+			{
+				while (!current.hasNext()) {
+					if (stripe >= stripes.length) {
+						return false;
+					}
+					current = stripes[stripe++].iterator();
+				}
+				return true;
+			}
+
+			@Override
+			public E next()
+			{
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				last = current;
+				return current.next();
+			}
+
+			@Override
+			public void remove()
+			{
+				if (last == null) {
+					throw new IllegalStateException("next() not called");
+				}
+				last.remove();
+			}
+		};
+	}
+
+	@Override
+	public int size()
+	{
+		int size = 0;
+		for (CopyOnWriteWeakLeakingCollection<E> stripe: stripes) {
+			size += stripe.size();
+		}
+		return size;
+	}
+
+	@Override
+	public boolean add(E e)
+	{
+		return stripeOf(e).add(e);
+	}
+
+	/**
+	 * Adds new element, associating it with context which is passed to leak notifier if the element leaks.
+	 *
+	 * @param e
+	 * 	element to add
+	 * @param context
+	 * 	context identifying the element origin, must not reference the element itself
+	 *
+	 * @return
+	 * 	false
+	 *
+	 * @see CopyOnWriteWeakLeakingCollection#add(Object, Object)
+	 */
+	public boolean add(E e, Object context)
+	{
+		return stripeOf(e).add(e, context);
+	}
+
+	@Override
+	public boolean remove(Object o)
+	{
+		CopyOnWriteWeakLeakingCollection<E> preferred = stripeOf(o);
+		if (preferred.remove(o)) {
+			return true;
+		}
+		// equal but not identical object may be located in different stripe:
+		for (CopyOnWriteWeakLeakingCollection<E> stripe: stripes) {
+			if (stripe != preferred && stripe.remove(o)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void clear()
+	{
+		for (CopyOnWriteWeakLeakingCollection<E> stripe: stripes) {
+			stripe.clear();
+		}
+	}
+
+	/**
+	 * Removes the leaked items reported by reference queue in all stripes and notifies the listener about them.
+	 *
+	 * @see CopyOnWriteWeakLeakingCollection#drainLeaks()
+	 */
+	public void drainLeaks()
+	{
+		for (CopyOnWriteWeakLeakingCollection<E> stripe: stripes) {
+			stripe.drainLeaks();
+		}
+	}
+
+	private CopyOnWriteWeakLeakingCollection<E> stripeOf(Object o)
+	{
+		int hash = System.identityHashCode(o);
+		return stripes[(hash^(hash>>>16))&(stripes.length-1)];
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015-2022 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/dryuf/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dryuf.base.concurrent.executor;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Batch size controller, adapting the batch size to observed processing latency.
+ *
+ * The controller follows AIMD (additive increase, multiplicative decrease) scheme: when full batch is processed within
+ * the latency target, the batch size is increased by {@code minSize}, when the latency target is exceeded, the batch
+ * size is halved.  The size is always kept between {@code minSize} and {@code maxSize}.
+ *
+ * The current batch size, average latency and throughput are exposed for monitoring.
+ *
+ * <pre>
+ *         AdaptiveBatchSize batchSize = new AdaptiveBatchSize(10, 10_000, 200, TimeUnit.MILLISECONDS);
+ *         try (WorkExecutor&lt;Row, Long&gt; executor = BatchWorkExecutor.builder(delegateExecutor)
+ *                 .adaptiveBatchSize(batchSize)
+ *                 .build(this::bulkInsert)) {
+ *         	...
+ *         	metrics.gauge("batchSize", batchSize::getBatchSize);
+ *         }
+ * </pre>
+ */
+public class AdaptiveBatchSize
+{
+	/** Weight of new sample in averages. */
+	private static final double AVERAGE_WEIGHT = 0.2;
+
+	private final int minSize;
+
+	private final int maxSize;
+
+	private final long latencyTargetNs;
+
+	private volatile int batchSize;
+
+	private volatile long averageLatencyNs;
+
+	private volatile double throughput;
+
+	/**
+	 * Creates the controller, starting at min size.
+	 *
+	 * @param minSize
+	 * 	min batch size, also the additive increase step
+	 * @param maxSize
+	 * 	max batch size
+	 * @param latencyTarget
+	 * 	max latency of single batch processing
+	 * @param timeUnit
+	 * 	unit of latencyTarget
+	 */
+	public AdaptiveBatchSize(int minSize, int maxSize, long latencyTarget, TimeUnit timeUnit)
+	{
+		if (minSize <= 0 || maxSize < minSize) {
+			throw new IllegalArgumentException("Expected 0 < minSize <= maxSize, got: minSize="+minSize+" maxSize="+maxSize);
+		}
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.latencyTargetNs = timeUnit.toNanos(latencyTarget);
+		this.batchSize = minSize;
+	}
+
+	/**
+	 * Gets current batch size.
+	 *
+	 * @return
+	 * 	current batch size.
+	 */
+	public int getBatchSize()
+	{
+		return batchSize;
+	}
+
+	/**
+	 * Gets average latency of batch processing.
+	 *
+	 * @return
+	 * 	exponential moving average of batch processing latency, in nanoseconds.
+	 */
+	public long getAverageLatencyNs()
+	{
+		return averageLatencyNs;
+	}
+
+	/**
+	 * Gets average throughput of batch processing.
+	 *
+	 * @return
+	 * 	exponential moving average of items processed per second by single batch processing.
+	 */
+	public double getThroughput()
+	{
+		return throughput;
+	}
+
+	/**
+	 * Records the processed batch and updates the batch size.
+	 *
+	 * @param size
+	 * 	number of items in batch
+	 * @param latencyNs
+	 * 	time since the batch was passed to processor until all its results completed, in nanoseconds
+	 */
+	public synchronized void record(int size, long latencyNs)
+	{
+		double itemsPerSecond = size*1_000_000_000.0/Math.max(latencyNs, 1);
+		if (averageLatencyNs == 0) {
+			averageLatencyNs = latencyNs;
+			throughput = itemsPerSecond;
+		}
+		else {
+			averageLatencyNs = (long) (averageLatencyNs*(1-AVERAGE_WEIGHT)+latencyNs*AVERAGE_WEIGHT);
+			throughput = throughput*(1-AVERAGE_WEIGHT)+itemsPerSecond*AVERAGE_WEIGHT;
+		}
+		int current = batchSize;
+		if (latencyNs > latencyTargetNs) {
+			batchSize = Math.max(minSize, current/2);
+		}
+		else if (size >= current) {
+			// only full batch proves there is demand for larger one:
+			batchSize = (int) Math.min(maxSize, (long) current+minSize);
+		}
+	}
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright 2015-2022 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/dryuf/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dryuf.base.concurrent.executor;
+
+import net.dryuf.base.function.ThrowingConsumer;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+
+/**
+ * Executor accepting work items, processing items in batches, allocation-lean variant of {@link BatchWorkExecutor}.
+ *
+ * The producers claim the slot in array chunk by single atomic increment, no per-item node is allocated.  The chunks
+ * are recycled once the batch is processed.  The processor receives {@link WorkBatch} view of the chunk and completes
+ * the items by index, the view is valid only during the processor call.  The items not completed by processor are
+ * failed with {@link IllegalStateException} once it returns.
+ *
+ * The batch is started once the first item is submitted into empty chunk and contains all the items submitted until
+ * it actually starts, up to {@code batchSize}.
+ *
+ * <pre>
+ *         try (WorkExecutor&lt;Integer, Integer&gt; executor = new ArrayBatchWorkExecutor&lt;&gt;(delegateExecutor, 1000, batch -> {
+ *         	for (int i = 0; i &lt; batch.size(); ++i) {
+ *         		batch.complete(i, batch.get(i)*batch.get(i));
+ *         	}
+ *         })) {
+ *         	CompletableFuture&lt;Integer&gt; v5 = executor.submit(5);
+ *         	assertEquals(v5.get(), 25);
+ *         }
+ *         // at this point, all executions are finished (successfully or not), underlying executor closed
+ * </pre>
+ *
+ * @param <T>
+ *	work item
+ * @param <R>
+ *      result
+ */
+public class ArrayBatchWorkExecutor<T, R> implements WorkExecutor<T, R>
+{
+	/** Max number of chunks kept for reuse. */
+	private static final int SPARE_COUNT = 4;
+
+	private final CloseableExecutor executor;
+
+	private final ThrowingConsumer<WorkBatch<T, R>, Exception> processor;
+
+	private final int batchSize;
+
+	/** Window currently accepting items. */
+	private volatile Window<T, R> current;
+
+	/** Chunks ready for reuse. */
+	private final AtomicReferenceArray<Chunk<T, R>> spares = new AtomicReferenceArray<>(SPARE_COUNT);
+
+	/** Number of batches started and not yet finished.  Or-ed by Integer.MIN_VALUE if closed. */
+	private volatile int batchPending = 0;
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<ArrayBatchWorkExecutor, Window> CURRENT_UPDATER =
+		AtomicReferenceFieldUpdater.newUpdater(ArrayBatchWorkExecutor.class, Window.class, "current");
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<ArrayBatchWorkExecutor> BATCH_PENDING_UPDATER =
+		AtomicIntegerFieldUpdater.newUpdater(ArrayBatchWorkExecutor.class, "batchPending");
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<Window> WINDOW_CLAIMED_UPDATER =
+		AtomicIntegerFieldUpdater.newUpdater(Window.class, "claimed");
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<Window> WINDOW_WRITTEN_UPDATER =
+		AtomicIntegerFieldUpdater.newUpdater(Window.class, "written");
+
+	/**
+	 * Creates instance from {@link CloseableExecutor}, closing it upon close.
+	 *
+	 * @param executor
+	 * 	underlying executor
+	 * @param batchSize
+	 * 	max number of work items sent at once to processor
+	 * @param processor
+	 * 	processing function, completing the items of batch by index
+	 */
+	public ArrayBatchWorkExecutor(CloseableExecutor executor, int batchSize, ThrowingConsumer<WorkBatch<T, R>, Exception> processor)
+	{
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("batchSize must be positive: "+batchSize);
+		}
+		this.executor = executor;
+		this.batchSize = batchSize;
+		this.processor = processor;
+		this.current = new Window<>(new Chunk<>(batchSize));
+	}
+
+	@Override
+	public CompletableFuture<R> submit(T work)
+	{
+		if ((batchPending&Integer.MIN_VALUE) != 0) {
+			throw new RejectedExecutionException("Executor closed");
+		}
+		CompletableFuture<R> future = new CompletableFuture<>();
+		for (;;) {
+			Window<T, R> window = current;
+			int index = WINDOW_CLAIMED_UPDATER.getAndIncrement(window);
+			if (index < batchSize) {
+				window.chunk.items[index] = work;
+				window.chunk.futures[index] = future;
+				WINDOW_WRITTEN_UPDATER.incrementAndGet(window);
+				if (index == 0) {
+					startBatch(window);
+				}
+				return future;
+			}
+			replaceWindow(window);
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		boolean interrupted = false;
+		int old = BATCH_PENDING_UPDATER.getAndUpdate(this, v -> v|Integer.MIN_VALUE);
+		if ((old&Integer.MIN_VALUE) != 0) {
+			return;
+		}
+		synchronized (this) {
+			while ((batchPending&Integer.MAX_VALUE) != 0) {
+				try {
+					wait();
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		executor.close();
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void startBatch(Window<T, R> window)
+	{
+		for (;;) {
+			int old = batchPending;
+			if ((old&Integer.MIN_VALUE) != 0) {
+				// closed after the slot was claimed, close() may have already returned, so fail the whole window:
+				RejectedExecutionException ex = new RejectedExecutionException("Executor closed");
+				Chunk<T, R> chunk = sealWindow(window);
+				chunk.failRemaining(ex);
+				chunk.reset();
+				releaseChunk(chunk);
+				throw ex;
+			}
+			if (BATCH_PENDING_UPDATER.compareAndSet(this, old, old+1)) {
+				break;
+			}
+		}
+		try {
+			executor.execute(() -> runBatch(window));
+		}
+		catch (Throwable ex) {
+			Chunk<T, R> chunk = sealWindow(window);
+			try {
+				for (int i = 0; i < chunk.size; ++i) {
+					chunk.futures[i].completeExceptionally(ex);
+				}
+			}
+			finally {
+				batchFinished(chunk);
+			}
+		}
+	}
+
+	private void runBatch(Window<T, R> window)
+	{
+		Chunk<T, R> chunk = sealWindow(window);
+		try {
+			processor.accept(chunk);
+			chunk.failRemaining(null);
+		}
+		catch (Throwable ex) {
+			chunk.failRemaining(ex);
+		}
+		finally {
+			batchFinished(chunk);
+		}
+	}
+
+	/**
+	 * Closes the window for new items and waits until all claimed slots are written.
+	 *
+	 * @return
+	 * 	chunk of the window, with size set to number of items.
+	 */
+	private Chunk<T, R> sealWindow(Window<T, R> window)
+	{
+		int size = Math.min(WINDOW_CLAIMED_UPDATER.getAndAdd(window, batchSize), batchSize);
+		replaceWindow(window);
+		while (window.written != size) {
+			// the producers are between claiming and writing the slot, which is very short:
+			Thread.yield();
+		}
+		window.chunk.size = size;
+		return window.chunk;
+	}
+
+	private void replaceWindow(Window<T, R> window)
+	{
+		if (current == window) {
+			Window<T, R> next = new Window<>(takeChunk());
+			if (!CURRENT_UPDATER.compareAndSet(this, window, next)) {
+				releaseChunk(next.chunk);
+			}
+		}
+	}
+
+	private void batchFinished(Chunk<T, R> chunk)
+	{
+		chunk.reset();
+		releaseChunk(chunk);
+		int old = BATCH_PENDING_UPDATER.getAndDecrement(this);
+		if (old == (Integer.MIN_VALUE|1)) {
+			synchronized (this) {
+				notifyAll();
+			}
+		}
+	}
+
+	private Chunk<T, R> takeChunk()
+	{
+		for (int i = 0; i < SPARE_COUNT; ++i) {
+			Chunk<T, R> chunk;
+			if (spares.get(i) != null && (chunk = spares.getAndSet(i, null)) != null) {
+				return chunk;
+			}
+		}
+		return new Chunk<>(batchSize);
+	}
+
+	private void releaseChunk(Chunk<T, R> chunk)
+	{
+		for (int i = 0; i < SPARE_COUNT; ++i) {
+			if (spares.get(i) == null && spares.compareAndSet(i, null, chunk)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Single batch window, accepting items into chunk until sealed.  The window is never reused, so the producers
+	 * holding stale reference cannot write into recycled chunk.
+	 */
+	private static class Window<T, R>
+	{
+		final Chunk<T, R> chunk;
+
+		/** Number of claimed slots, increased by batchSize when sealed. */
+		volatile int claimed;
+
+		/** Number of written slots. */
+		volatile int written;
+
+		public Window(Chunk<T, R> chunk)
+		{
+			this.chunk = chunk;
+		}
+	}
+
+	/**
+	 * Reusable buffer of items and their futures, serving as batch view for processor.
+	 */
+	private static class Chunk<T, R> extends AbstractList<T> implements WorkBatch<T, R>
+	{
+		final Object[] items;
+
+		final CompletableFuture<R>[] futures;
+
+		int size;
+
+		@SuppressWarnings("unchecked")
+		public Chunk(int capacity)
+		{
+			this.items = new Object[capacity];
+			this.futures = new CompletableFuture[capacity];
+		}
+
+		@Override
+		public int size()
+		{
+			return size;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public T get(int index)
+		{
+			checkIndex(index);
+			return (T) items[index];
+		}
+
+		@Override
+		public List<T> asList()
+		{
+			return this;
+		}
+
+		@Override
+		public void complete(int index, R result)
+		{
+			checkIndex(index);
+			futures[index].complete(result);
+		}
+
+		@Override
+		public void fail(int index, Throwable ex)
+		{
+			checkIndex(index);
+			futures[index].completeExceptionally(ex);
+		}
+
+		void failRemaining(Throwable ex)
+		{
+			for (int i = 0; i < size; ++i) {
+				if (!futures[i].isDone()) {
+					futures[i].completeExceptionally(ex != null ? ex :
+						new IllegalStateException("Work item not completed by processor"));
+				}
+			}
+		}
+
+		void reset()
+		{
+			for (int i = 0; i < size; ++i) {
+				items[i] = null;
+				futures[i] = null;
+			}
+			size = 0;
+		}
+
+		private void checkIndex(int index)
+		{
+			if (index < 0 || index >= size) {
+				throw new IndexOutOfBoundsException("Index out of range: "+index+" size="+size);
+			}
+		}
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2015-2022 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/dryuf/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dryuf.base.concurrent.executor;
+
+import net.dryuf.base.concurrent.future.ScheduledUtil;
+
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+
+/**
+ * Retry policy of {@link BatchWorkExecutor}.
+ *
+ * The failed items are re-enqueued after exponential backoff, doubling the delay with each attempt up to
+ * {@code maxDelay}, so they are processed as part of subsequent batches together with new items.  When the processor
+ * fails the whole batch and bisection is enabled, the batch is split into halves which are processed again
+ * immediately, until the failing items are isolated, so the poison items do not fail the good ones.
+ *
+ * <pre>
+ *         BatchRetryPolicy retryPolicy = new BatchRetryPolicy(5, 10, 1000, TimeUnit.MILLISECONDS, true);
+ *         try (WorkExecutor&lt;Row, Long&gt; executor = BatchWorkExecutor.builder(delegateExecutor)
+ *                 .batchSize(1000)
+ *                 .retryPolicy(retryPolicy)
+ *                 .build(this::bulkInsert)) {
+ *         	...
+ *         }
+ * </pre>
+ */
+public class BatchRetryPolicy
+{
+	private final int maxAttempts;
+
+	private final long initialDelayNs;
+
+	private final long maxDelayNs;
+
+	private final boolean bisect;
+
+	private final Predicate<Throwable> retryable;
+
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * Creates the policy, retrying on any exception.  The retries are scheduled by
+	 * {@link ScheduledUtil#sharedExecutor()}.
+	 *
+	 * @param maxAttempts
+	 * 	max number of attempts to process single item, including the first one
+	 * @param initialDelay
+	 * 	delay before first retry
+	 * @param maxDelay
+	 * 	max delay between retries
+	 * @param timeUnit
+	 * 	unit of delays
+	 * @param bisect
+	 * 	whether to split the failing batches to isolate failing items
+	 */
+	public BatchRetryPolicy(int maxAttempts, long initialDelay, long maxDelay, TimeUnit timeUnit, boolean bisect)
+	{
+		this(maxAttempts, initialDelay, maxDelay, timeUnit, bisect, (ex) -> true, ScheduledUtil.sharedExecutor());
+	}
+
+	/**
+	 * Creates the policy.
+	 *
+	 * @param maxAttempts
+	 * 	max number of attempts to process single item, including the first one
+	 * @param initialDelay
+	 * 	delay before first retry
+	 * @param maxDelay
+	 * 	max delay between retries
+	 * @param timeUnit
+	 * 	unit of delays
+	 * @param bisect
+	 * 	whether to split the failing batches to isolate failing items
+	 * @param retryable
+	 * 	predicate deciding whether the exception is worth retrying
+	 * @param scheduler
+	 * 	scheduler running the retry timers, only non-blocking tasks are run on it
+	 */
+	public BatchRetryPolicy(int maxAttempts, long initialDelay, long maxDelay, TimeUnit timeUnit, boolean bisect, Predicate<Throwable> retryable, ScheduledExecutorService scheduler)
+	{
+		if (maxAttempts <= 0) {
+			throw new IllegalArgumentException("maxAttempts must be positive: "+maxAttempts);
+		}
+		this.maxAttempts = maxAttempts;
+		this.initialDelayNs = timeUnit.toNanos(initialDelay);
+		this.maxDelayNs = timeUnit.toNanos(maxDelay);
+		this.bisect = bisect;
+		this.retryable = Objects.requireNonNull(retryable, "retryable");
+		this.scheduler = Objects.requireNonNull(scheduler, "scheduler");
+	}
+
+	/**
+	 * Checks whether the failing batches are split.
+	 *
+	 * @return
+	 * 	true if the failing batches are split to isolate failing items.
+	 */
+	public boolean isBisect()
+	{
+		return bisect;
+	}
+
+	/**
+	 * Checks whether the failed item should be retried.
+	 *
+	 * @param ex
+	 * 	failure of the item
+	 * @param attempt
+	 * 	number of attempts done so far
+	 *
+	 * @return
+	 * 	true if the item should be retried.
+	 */
+	public boolean shouldRetry(Throwable ex, int attempt)
+	{
+		if (attempt >= maxAttempts) {
+			return false;
+		}
+		if (ex instanceof CompletionException && ex.getCause() != null) {
+			ex = ex.getCause();
+		}
+		return retryable.test(ex);
+	}
+
+	/**
+	 * Gets the delay before retry.
+	 *
+	 * @param attempt
+	 * 	number of attempts done so far
+	 *
+	 * @return
+	 * 	delay before next attempt, in nanoseconds.
+	 */
+	public long getDelayNs(int attempt)
+	{
+		int shift = Math.min(attempt-1, 62);
+		return initialDelayNs > maxDelayNs>>shift ? maxDelayNs : initialDelayNs<<shift;
+	}
+
+	ScheduledExecutorService getScheduler()
+	{
+		return scheduler;
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2015-2022 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/dryuf/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dryuf.base.concurrent.executor;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.java.Log;
+import net.dryuf.base.function.ThrowingConsumer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.logging.Level;
+
+
+/**
+ * Executor sequentially passing the submitted items to consumer in batches.
+ *
+ * The items are passed in order of submission, all items pending at the time the consumer is run are passed as single
+ * batch.  The consumer calls run sequentially, no two running at the same time.  It waits for submitted items to be
+ * consumed upon close.
+ *
+ * Usage:
+ *
+ * <pre>
+ *         try (BatchSequencingExecutor&lt;ByteBuffer&gt; executor = new BatchSequencingExecutor&lt;&gt;(
+ *                 (buffers) -> { channel.write(buffers.toArray(new ByteBuffer[0])); channel.flush(); })) {
+ *            	executor.execute(ByteBuffer.wrap(header));
+ *            	executor.execute(ByteBuffer.wrap(body));
+ *         }
+ *         // the above buffers will be written at this point, in this order, possibly in single write call
+ * </pre>
+ *
+ * @param <T>
+ *      type of item
+ */
+@Log
+public class BatchSequencingExecutor<T> implements AutoCloseable
+{
+	/**
+	 * Creates instance from executor, closing it upon close.
+	 *
+	 * @param executor
+	 * 	underlying executor
+	 * @param consumer
+	 * 	consumer processing the batches
+	 */
+	public BatchSequencingExecutor(CloseableExecutor executor, ThrowingConsumer<List<T>, ? extends Exception> consumer)
+	{
+		this.executor = executor;
+		this.consumer = consumer;
+	}
+
+	/**
+	 * Creates instance from executor, not closing it upon close.
+	 *
+	 * @param executor
+	 * 	underlying executor
+	 * @param consumer
+	 * 	consumer processing the batches
+	 */
+	public BatchSequencingExecutor(Executor executor, ThrowingConsumer<List<T>, ? extends Exception> consumer)
+	{
+		this(new UncontrolledCloseableExecutor(executor), consumer);
+	}
+
+	/**
+	 * Creates instance from common pool executor.
+	 *
+	 * @param consumer
+	 * 	consumer processing the batches
+	 */
+	public BatchSequencingExecutor(ThrowingConsumer<List<T>, ? extends Exception> consumer)
+	{
+		this(CommonPoolExecutor.getInstance(), consumer);
+	}
+
+	/**
+	 * Submits the item to be passed to consumer.
+	 *
+	 * @param item
+	 * 	item to process
+	 *
+	 * @throws RejectedExecutionException
+	 * 	if the executor is closed or underlying executor rejected the execution
+	 */
+	@SuppressWarnings("unchecked")
+	public void execute(T item)
+	{
+		// Producer:
+		// If empty, it takes the lock and marks the state as STARTING, runs the executor and after that inserts
+		// the item into pending queue.  Other producers wait on the lock until the item is inserted.
+		// Otherwise, it pushes the item on top of pending stack, cutting the stack at LOCK .
+		// Consumer:
+		// It takes the whole pending stack, replacing it with LOCK, reverses it and passes to consumer.
+		// If the stack was LOCK already, it updates the state to null and exits.
+		Objects.requireNonNull(item, "item must not be null");
+		for (;;) {
+			Node<T> last = pending;
+			if (last == null) {
+				synchronized (lock) {
+					if (PENDING_UPDATER.compareAndSet(this, null, STARTING)) {
+						try {
+							executor.execute(this::drainPending);
+						}
+						catch (Throwable ex) {
+							pending = null;
+							throw ex;
+						}
+						pending = new Node<>(null, item);
+						return;
+					}
+				}
+			}
+			else if (last == STARTING) {
+				synchronized (lock) {
+					// just waiting for the thread currently starting the consumer to finish its update
+				}
+			}
+			else if (last == CLOSED) {
+				throw new RejectedExecutionException("Executor closed");
+			}
+			else if (PENDING_UPDATER.compareAndSet(this, last, new Node<>(last == LOCK ? null : last, item))) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Closes the executor, waiting for all submitted items to be consumed.
+	 *
+	 * If interrupted, the method sets interrupted flag on this thread.
+	 */
+	@Override
+	public void close()
+	{
+		boolean interrupted = false;
+		try {
+			synchronized (lock) {
+				if (closing) {
+					return;
+				}
+				closing = true;
+				while (!PENDING_UPDATER.compareAndSet(this, null, CLOSED)) {
+					try {
+						lock.wait();
+					}
+					catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			}
+			executor.close();
+		}
+		finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void drainPending()
+	{
+		synchronized (lock) {
+		}
+		for (;;) {
+			Node<T> last = PENDING_UPDATER.getAndSet(this, LOCK);
+			if (last == LOCK) {
+				if (PENDING_UPDATER.compareAndSet(this, LOCK, null)) {
+					if (closing) {
+						synchronized (lock) {
+							lock.notifyAll();
+						}
+					}
+					return;
+				}
+				continue;
+			}
+			int size = 0;
+			for (Node<T> n = last; n != null; n = n.next) {
+				++size;
+			}
+			Object[] batch = new Object[size];
+			for (Node<T> n = last; n != null; n = n.next) {
+				batch[--size] = n.item;
+			}
+			try {
+				consumer.accept((List<T>) Arrays.asList(batch));
+			}
+			catch (Throwable ex) {
+				log.log(Level.SEVERE, "Batch consumer failed, items are lost", ex);
+			}
+		}
+	}
+
+	@AllArgsConstructor
+	private static class Node<T>
+	{
+		Node<T> next;
+
+		final T item;
+	}
+
+	private final CloseableExecutor executor;
+
+	private final ThrowingConsumer<List<T>, ? extends Exception> consumer;
+
+	/** List of pending items in opposite order.  null means the consumer is not running now. */
+	private volatile Node<T> pending = null;
+
+	/** Indicates close() is waiting for consumer to finish. */
+	private volatile boolean closing = false;
+
+	private final Object lock = new Object();
+
+	/** Special value indicating the producer is starting the consumer. */
+	@SuppressWarnings("rawtypes")
+	private static final Node STARTING = new Node<>(null, null);
+
+	/** Special value indicating the consumer is running and no items are pending. */
+	@SuppressWarnings("rawtypes")
+	private static final Node LOCK = new Node<>(null, null);
+
+	/** Special value indicating the executor is closed. */
+	@SuppressWarnings("rawtypes")
+	private static final Node CLOSED = new Node<>(null, null);
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<BatchSequencingExecutor, Node> PENDING_UPDATER =
+		AtomicReferenceFieldUpdater.newUpdater(BatchSequencingExecutor.class, Node.class, "pending");
+}
@@ -2,13 +2,18 @@ package net.dryuf.base.concurrent.executor;
 
 import lombok.AllArgsConstructor;
 import net.dryuf.base.concurrent.future.FutureUtil;
+import net.dryuf.base.concurrent.future.ScheduledUtil;
 import net.dryuf.base.function.ThrowingFunction;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
@@ -26,6 +31,31 @@ import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
  *         // at this point, all executions are finished (successfully or not), underlying executor closed if closeable
  * </pre>
  *
+ * By default, the batch is started immediately when first item is submitted, so under moderate load the batches are
+ * small.  In linger mode, the batch is started once {@code minBatchSize} items are pending or {@code maxDelay} elapsed
+ * since the first pending item was submitted, whichever comes first:
+ *
+ * <pre>
+ *         try (WorkExecutor&lt;Row, Long&gt; executor = BatchWorkExecutor.builder(delegateExecutor)
+ *                 .batchSize(1000)
+ *                 .linger(200, 10, TimeUnit.MILLISECONDS)
+ *                 .build(this::bulkInsert)) {
+ *         	CompletableFuture&lt;Long&gt; id = executor.submit(row);
+ *         }
+ * </pre>
+ *
+ * The max batch size can be fixed or controlled by {@link AdaptiveBatchSize}, adapting it to observed latency of
+ * processor.
+ *
+ * The failed items can be retried according to {@link BatchRetryPolicy}, re-enqueued into subsequent batches.
+ *
+ * In ordered mode, the result futures are completed in submission order by single draining thread, even though the
+ * batches run in parallel, so there is no need for additional {@link ResultSequencingExecutor}.  Similarly to it,
+ * the order of callbacks is guaranteed only if they are registered before the result is completed.
+ *
+ * The number of pending items and running batches can be limited, the {@link SequencingExecutor.OverflowPolicy}
+ * decides whether the producer is blocked, rejected or its item admitted asynchronously once there is space.
+ *
  * @param <T>
  *	work item
  * @param <R>
@@ -41,9 +71,51 @@ public class BatchWorkExecutor<T, R> implements WorkExecutor<T, R>
 
 	private final int batchSize;
 
+	/** Adaptive batch size controller, null if batch size is fixed. */
+	private final AdaptiveBatchSize adaptiveBatchSize;
+
+	/** Number of pending items starting the batch immediately, 1 if not lingering. */
+	private final int minBatchSize;
+
+	/** Max delay of the batch since first item submitted, in nanoseconds. */
+	private final long maxDelayNs;
+
+	/** Scheduler for maxDelay timers, null if not lingering. */
+	private final ScheduledExecutorService scheduler;
+
+	/** Max number of pending items not yet taken by batch. */
+	private final int maxPending;
+
+	/** Policy applied when maxPending is reached. */
+	private final SequencingExecutor.OverflowPolicy overflowPolicy;
+
+	/** Max number of batches running concurrently, Integer.MAX_VALUE if unlimited. */
+	private final int maxRunningBatches;
+
+	/** Retry policy, null if failures are not retried. */
+	private final BatchRetryPolicy retryPolicy;
+
+	/** Last result completed to caller in ordered mode, sentinel of the ordered list, null if not ordered. */
+	private volatile OrderedResult<T, R> orderedHead;
+
+	/** Last submitted result in ordered mode. */
+	private volatile OrderedResult<T, R> orderedTail;
+
+	/** Indicates a thread is completing the ordered results. */
+	private volatile int orderedDraining = 0;
+
+	/** Items waiting for admission with {@link SequencingExecutor.OverflowPolicy#ASYNC} policy. */
+	private final ConcurrentLinkedQueue<Admission<T, R>> admissions = new ConcurrentLinkedQueue<>();
+
 	private volatile Node<T, R> pending;
 
-	/** Number of batchStarter operations in progress.  Or-ed by Integer.MIN_VALUE if close is waiting. */
+	/** Number of running batches, including the batchStarter ones.  Maintained only if maxRunningBatches is limited. */
+	private volatile int runningBatches = 0;
+
+	/** Indicates the pending chain was started but waits for running batch to finish. */
+	private volatile int deferredStart = 0;
+
+	/** Number of batchStarter operations and waiting admissions in progress.  Or-ed by Integer.MIN_VALUE if close is waiting. */
 	private volatile int batchPending = 0;
 
 	@SuppressWarnings("rawtypes")
@@ -54,6 +126,26 @@ public class BatchWorkExecutor<T, R> implements WorkExecutor<T, R>
 	private static final AtomicIntegerFieldUpdater<BatchWorkExecutor> BATCH_PENDING_UPDATER =
 		AtomicIntegerFieldUpdater.newUpdater(BatchWorkExecutor.class, "batchPending");
 
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<BatchWorkExecutor> RUNNING_BATCHES_UPDATER =
+		AtomicIntegerFieldUpdater.newUpdater(BatchWorkExecutor.class, "runningBatches");
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<BatchWorkExecutor> DEFERRED_START_UPDATER =
+		AtomicIntegerFieldUpdater.newUpdater(BatchWorkExecutor.class, "deferredStart");
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<BatchWorkExecutor, OrderedResult> ORDERED_TAIL_UPDATER =
+		AtomicReferenceFieldUpdater.newUpdater(BatchWorkExecutor.class, OrderedResult.class, "orderedTail");
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<BatchWorkExecutor> ORDERED_DRAINING_UPDATER =
+		AtomicIntegerFieldUpdater.newUpdater(BatchWorkExecutor.class, "orderedDraining");
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<Node> NODE_STARTED_UPDATER =
+		AtomicIntegerFieldUpdater.newUpdater(Node.class, "started");
+
 	/**
 	 * Creates instance from {@link ExecutorService}, not shutting it down upon close.
 	 *
@@ -81,51 +173,118 @@ public class BatchWorkExecutor<T, R> implements WorkExecutor<T, R>
 	 */
 	public BatchWorkExecutor(CloseableExecutor executor, int batchSize, ThrowingFunction<List<T>, List<CompletableFuture<R>>, Exception> processor)
 	{
+		this(executor, batchSize, null, 1, 0, null, PENDING_MAX, SequencingExecutor.OverflowPolicy.BLOCK, Integer.MAX_VALUE, null, false, processor);
+	}
+
+	/**
+	 * Creates new builder, configuring the optional features.
+	 *
+	 * @param executor
+	 * 	underlying executor, closed upon close
+	 *
+	 * @return
+	 * 	executor builder
+	 */
+	public static Builder builder(CloseableExecutor executor)
+	{
+		return new Builder(executor);
+	}
+
+	private BatchWorkExecutor(CloseableExecutor executor, int batchSize, AdaptiveBatchSize adaptiveBatchSize, int minBatchSize, long maxDelayNs, ScheduledExecutorService scheduler, int maxPending, SequencingExecutor.OverflowPolicy overflowPolicy, int maxRunningBatches, BatchRetryPolicy retryPolicy, boolean orderedResults, ThrowingFunction<List<T>, List<CompletableFuture<R>>, Exception> processor)
+	{
+		if (minBatchSize <= 0) {
+			throw new IllegalArgumentException("minBatchSize must be positive: "+minBatchSize);
+		}
+		if (maxPending <= 0) {
+			throw new IllegalArgumentException("maxPending must be positive: "+maxPending);
+		}
+		if (maxRunningBatches <= 0) {
+			throw new IllegalArgumentException("maxRunningBatches must be positive: "+maxRunningBatches);
+		}
 		this.executor = executor;
 		this.batchSize = batchSize;
+		this.adaptiveBatchSize = adaptiveBatchSize;
+		this.minBatchSize = minBatchSize;
+		this.maxDelayNs = maxDelayNs;
+		this.scheduler = scheduler;
+		this.maxPending = maxPending;
+		this.overflowPolicy = overflowPolicy;
+		this.maxRunningBatches = maxRunningBatches;
+		this.retryPolicy = retryPolicy;
 		this.processor = processor;
+		if (orderedResults) {
+			this.orderedHead = this.orderedTail = new OrderedResult<>(null);
+		}
 	}
 
 	@Override
 	public CompletableFuture<R> submit(T work)
 	{
+		if (orderedHead != null) {
+			return submitOrdered(work);
+		}
+		CompletableFuture<R> future = new CompletableFuture<>();
+		enqueue(work, future);
+		return future;
+	}
+
+	private CompletableFuture<R> submitOrdered(T work)
+	{
+		OrderedResult<T, R> result = new OrderedResult<>(this);
+		// the result is linked before the item is enqueued, so it is always reachable once completed:
+		@SuppressWarnings("unchecked")
+		OrderedResult<T, R> previous = ORDERED_TAIL_UPDATER.getAndSet(this, result);
+		previous.next = result;
+		try {
+			enqueue(work, result);
+		}
+		catch (Throwable ex) {
+			// unblock the following results, nobody listens to this one:
+			result.completeExceptionally(ex);
+			throw ex;
+		}
+		return result.caller;
+	}
+
+	private void enqueue(T work, CompletableFuture<R> future)
+	{
+		if (!admissions.isEmpty()) {
+			// keep the order, items waiting for admission go first:
+			admitAsync(work, future);
+			return;
+		}
 		boolean interrupted = false;
 		try {
-			CompletableFuture<R> future = new CompletableFuture<>();
 			for (;;) {
 				Node<T, R> oldPending = pending;
-				if (oldPending != null && oldPending.count == PENDING_MAX) {
-					synchronized (this) {
-						oldPending = pending;
-						if (oldPending != null && oldPending.count == PENDING_MAX) {
-							try {
-								wait();
-							}
-							catch (InterruptedException e) {
-								interrupted = true;
+				if (oldPending != null && oldPending.count >= maxPending) {
+					switch (overflowPolicy) {
+					case REJECT:
+						throw new RejectedExecutionException("Queue full, max pending: "+maxPending);
+
+					case ASYNC:
+						admitAsync(work, future);
+						return;
+
+					default:
+						synchronized (this) {
+							oldPending = pending;
+							if (oldPending != null && oldPending.count >= maxPending) {
+								try {
+									wait();
+								}
+								catch (InterruptedException e) {
+									interrupted = true;
+								}
 							}
 						}
 						continue;
 					}
 				}
-				Node<T, R> node = new Node<>(oldPending != null ? oldPending.count+1 : 1, oldPending, work, future);
-				if (PENDING_UPDATER.compareAndSet(this, oldPending, node)) {
-					if (oldPending == null) {
-						for (;;) {
-							int old = batchPending;
-							if ((old&Integer.MIN_VALUE) != 0) {
-								throw new RejectedExecutionException("Executor closed");
-							}
-							if (BATCH_PENDING_UPDATER.compareAndSet(this, old, old+1)) {
-								break;
-							}
-						}
-						executor.execute(this::batchStarter);
-					}
+				if (tryPush(oldPending, work, future, false, 0)) {
 					break;
 				}
 			}
-			return future;
 		}
 		finally {
 			if (interrupted) {
@@ -147,6 +306,11 @@ public class BatchWorkExecutor<T, R> implements WorkExecutor<T, R>
 			}
 			else {
 				if (BATCH_PENDING_UPDATER.compareAndSet(this, old, old | Integer.MIN_VALUE)) {
+					// do not linger, start the pending batch immediately:
+					Node<T, R> lingering = pending;
+					if (lingering != null) {
+						startBatch(lingering.first);
+					}
 					synchronized (this) {
 						if ((batchPending&Integer.MAX_VALUE) != 0) {
 							try {
@@ -166,31 +330,253 @@ public class BatchWorkExecutor<T, R> implements WorkExecutor<T, R>
 		}
 	}
 
+	private int currentBatchSize()
+	{
+		return adaptiveBatchSize != null ? adaptiveBatchSize.getBatchSize() : batchSize;
+	}
+
+	private int lingerSize()
+	{
+		return adaptiveBatchSize != null ? Math.min(minBatchSize, adaptiveBatchSize.getBatchSize()) : minBatchSize;
+	}
+
+	/**
+	 * Pushes the item on top of pending chain, starting the batch if needed.
+	 *
+	 * @param admitted
+	 * 	indicates the item was admitted before close and must be accepted even if closed
+	 * @param attempt
+	 * 	number of previous attempts to process the item
+	 *
+	 * @return
+	 * 	true if pushed, false if the pending chain was concurrently modified
+	 */
+	private boolean tryPush(Node<T, R> oldPending, T work, CompletableFuture<R> future, boolean admitted, int attempt)
+	{
+		if (oldPending == null) {
+			// the new chain is counted before it becomes visible, as other producers may start its batch right away:
+			for (;;) {
+				int old = batchPending;
+				if ((old&Integer.MIN_VALUE) != 0 && !admitted) {
+					throw new RejectedExecutionException("Executor closed");
+				}
+				if (BATCH_PENDING_UPDATER.compareAndSet(this, old, old+1)) {
+					break;
+				}
+			}
+		}
+		Node<T, R> node = new Node<>(oldPending != null ? oldPending.count+1 : 1, oldPending, work, future, attempt);
+		if (!PENDING_UPDATER.compareAndSet(this, oldPending, node)) {
+			if (oldPending == null) {
+				releaseBatchPending();
+			}
+			return false;
+		}
+		if (oldPending == null) {
+			if (scheduler != null && minBatchSize > 1) {
+				scheduler.schedule(() -> startBatchFromTimer(node), maxDelayNs, TimeUnit.NANOSECONDS);
+			}
+		}
+		if ((node.count >= lingerSize() || node.count >= maxPending || (batchPending&Integer.MIN_VALUE) != 0) && node.first.started == 0) {
+			startBatch(node.first);
+		}
+		return true;
+	}
+
+	private void admitAsync(T work, CompletableFuture<R> future)
+	{
+		// the waiting item holds batchPending, so close waits for its admission:
+		for (;;) {
+			int old = batchPending;
+			if ((old&Integer.MIN_VALUE) != 0) {
+				throw new RejectedExecutionException("Executor closed");
+			}
+			if (BATCH_PENDING_UPDATER.compareAndSet(this, old, old+1)) {
+				break;
+			}
+		}
+		admissions.add(new Admission<>(work, future));
+		admitWaiting();
+	}
+
+	/**
+	 * Moves the items waiting for admission to pending chain, as long as there is space.  Called by producers after
+	 * adding to admission queue and by batchStarter after taking the pending chain, so no item is left behind.
+	 */
+	private void admitWaiting()
+	{
+		for (;;) {
+			Node<T, R> oldPending = pending;
+			if (oldPending != null && oldPending.count >= maxPending) {
+				return;
+			}
+			Admission<T, R> admission = admissions.poll();
+			if (admission == null) {
+				return;
+			}
+			try {
+				while (!tryPush(pending, admission.work, admission.future, true, 0)) ;
+			}
+			catch (Throwable ex) {
+				admission.future.completeExceptionally(ex);
+			}
+			finally {
+				releaseBatchPending();
+			}
+		}
+	}
+
+	/**
+	 * Starts the batch of the pending chain, unless it was started already.  If the limit of running batches is
+	 * reached, the start is deferred until running batch finishes.
+	 *
+	 * @param first
+	 * 	first node of the pending chain
+	 */
+	private void startBatch(Node<T, R> first)
+	{
+		if (NODE_STARTED_UPDATER.compareAndSet(first, 0, 1)) {
+			if (tryAcquireRunning()) {
+				executeBatchStarter();
+			}
+			else {
+				// the chain keeps growing until running batch finishes and picks it up:
+				deferredStart = 1;
+				if (tryAcquireRunning()) {
+					if (DEFERRED_START_UPDATER.compareAndSet(this, 1, 0)) {
+						executeBatchStarter();
+					}
+					else {
+						releaseRunning();
+					}
+				}
+			}
+		}
+	}
+
+	private void executeBatchStarter()
+	{
+		try {
+			executor.execute(this::batchStarter);
+		}
+		catch (Throwable ex) {
+			releaseRunning();
+			throw ex;
+		}
+	}
+
+	private boolean tryAcquireRunning()
+	{
+		if (maxRunningBatches == Integer.MAX_VALUE) {
+			return true;
+		}
+		for (;;) {
+			int old = runningBatches;
+			if (old >= maxRunningBatches) {
+				return false;
+			}
+			if (RUNNING_BATCHES_UPDATER.compareAndSet(this, old, old+1)) {
+				return true;
+			}
+		}
+	}
+
+	private void releaseRunning()
+	{
+		if (maxRunningBatches == Integer.MAX_VALUE) {
+			return;
+		}
+		RUNNING_BATCHES_UPDATER.decrementAndGet(this);
+		while (deferredStart != 0 && tryAcquireRunning()) {
+			if (DEFERRED_START_UPDATER.compareAndSet(this, 1, 0)) {
+				try {
+					executor.execute(this::batchStarter);
+				}
+				catch (Throwable ex) {
+					// underlying executor rejected, run it here as nobody else would pick it up:
+					batchStarter();
+				}
+				return;
+			}
+			RUNNING_BATCHES_UPDATER.decrementAndGet(this);
+		}
+	}
+
+	private void startBatchFromTimer(Node<T, R> first)
+	{
+		try {
+			startBatch(first);
+		}
+		catch (Throwable ex) {
+			// underlying executor rejected, the batch was not started and the chain is still pending:
+			@SuppressWarnings("unchecked")
+			Node<T, R> last = PENDING_UPDATER.getAndSet(this, null);
+			chainTaken(last);
+			for (Node<T, R> n = last; n != null; n = n.next) {
+				n.future.completeExceptionally(ex);
+			}
+			releaseBatchPending();
+		}
+	}
+
 	private void batchStarter()
 	{
 		@SuppressWarnings("unchecked")
 		Node<T, R> last = PENDING_UPDATER.getAndSet(this, null);
 		try {
+			chainTaken(last);
 			int size = 0;
 			for (Node<T, R> n = last; n != null; ++size, n = n.next) ;
 			@SuppressWarnings({ "unchecked", "rawtypes" })
 			List<T> works = (List) Arrays.asList(new Object[size]);
 			@SuppressWarnings("unchecked")
 			List<CompletableFuture<R>> futures = Arrays.asList(new CompletableFuture[size]);
+			int[] attempts = retryPolicy != null ? new int[size] : null;
 			{
 				int i = size-1;
 				for (Node<T, R> n = last; n != null; n = n.next, --i) {
 					works.set(i, n.work);
 					futures.set(i, n.future);
+					if (attempts != null) {
+						attempts[i] = n.attempt;
+					}
 				}
 			}
+			int batchSize = currentBatchSize();
+			int inlineFrom = size;
 			for (int i = batchSize; i < size; i += batchSize) {
 				int s = i, e = Math.min(i+batchSize, size);
-				executor.execute(() -> runBatch(works.subList(s, e), futures.subList(s, e)));
+				if (!tryAcquireRunning()) {
+					// no more batch slots, the rest is run sequentially by this thread:
+					inlineFrom = i;
+					break;
+				}
+				// the running batches may schedule retries, so close must wait for them:
+				BATCH_PENDING_UPDATER.getAndIncrement(this);
+				try {
+					executor.execute(() -> {
+						try {
+							runBatch(works.subList(s, e), futures.subList(s, e), attempts, s);
+						}
+						finally {
+							releaseRunning();
+							releaseBatchPending();
+						}
+					});
+				}
+				catch (Throwable ex) {
+					releaseRunning();
+					releaseBatchPending();
+					throw ex;
+				}
 			}
 			{
-				int s = 0, e = Math.min(batchSize, works.size());
-				runBatch(works.subList(s, e), futures.subList(s, e));
+				int s = 0, e = Math.min(batchSize, size);
+				runBatch(works.subList(s, e), futures.subList(s, e), attempts, s);
+			}
+			for (int s = inlineFrom; s < size; s += batchSize) {
+				int e = Math.min(s+batchSize, size);
+				runBatch(works.subList(s, e), futures.subList(s, e), attempts, s);
 			}
 		}
 		catch (Throwable ex) {
@@ -199,33 +585,82 @@ public class BatchWorkExecutor<T, R> implements WorkExecutor<T, R>
 			}
 		}
 		finally {
-			if (last.count == PENDING_MAX) {
-				synchronized (this) {
-					notifyAll();
-				}
+			releaseRunning();
+			releaseBatchPending();
+		}
+	}
+
+	/**
+	 * Wakes up the producers blocked on full pending chain and admits the waiting items.
+	 */
+	private void chainTaken(Node<T, R> last)
+	{
+		if (last.count >= maxPending) {
+			synchronized (this) {
+				notifyAll();
 			}
-			for (;;) {
-				int old = batchPending;
-				if (BATCH_PENDING_UPDATER.compareAndSet(this, old, old-1)) {
-					if ((old&Integer.MIN_VALUE) != 0) {
-						synchronized (this) {
-							notifyAll();
-						}
+		}
+		if (!admissions.isEmpty()) {
+			admitWaiting();
+		}
+	}
+
+	private void releaseBatchPending()
+	{
+		for (;;) {
+			int old = batchPending;
+			if (BATCH_PENDING_UPDATER.compareAndSet(this, old, old-1)) {
+				if ((old&Integer.MIN_VALUE) != 0) {
+					synchronized (this) {
+						notifyAll();
 					}
-					break;
 				}
+				break;
 			}
 		}
 	}
 
-	void runBatch(List<T> works, List<CompletableFuture<R>> futures)
+	/**
+	 * Runs the batch, completing the futures or passing the failures to retry policy.
+	 *
+	 * @param attempts
+	 * 	number of previous attempts of the items, null if retry is not enabled
+	 * @param offset
+	 * 	offset of works within attempts array
+	 */
+	void runBatch(List<T> works, List<CompletableFuture<R>> futures, int[] attempts, int offset)
 	{
 		try {
-			List<CompletableFuture<R>> results = processor.apply(works);
+			List<CompletableFuture<R>> results;
+			if (adaptiveBatchSize != null) {
+				long start = System.nanoTime();
+				results = processor.apply(works);
+				// the processor may return pending futures, the latency is measured until all of them complete:
+				int size = works.size();
+				CompletableFuture.allOf(results.toArray(new CompletableFuture[0]))
+					.whenComplete((v, x) -> adaptiveBatchSize.record(size, System.nanoTime()-start));
+			}
+			else {
+				results = processor.apply(works);
+			}
 			for (int j = 0, e = works.size(); j < e; ++j) {
 				CompletableFuture<R> future = futures.get(j);
 				try {
-					results.get(j).handle((v, x) -> FutureUtil.completeOrFail(future, v, x));
+					if (attempts == null) {
+						results.get(j).handle((v, x) -> FutureUtil.completeOrFail(future, v, x));
+					}
+					else {
+						T work = works.get(j);
+						int attempt = attempts[offset+j];
+						results.get(j).whenComplete((v, x) -> {
+							if (x == null) {
+								future.complete(v);
+							}
+							else {
+								retryOrFail(work, future, attempt+1, x);
+							}
+						});
+					}
 				}
 				catch (Throwable ex) {
 					future.completeExceptionally(ex);
@@ -233,22 +668,380 @@ public class BatchWorkExecutor<T, R> implements WorkExecutor<T, R>
 			}
 		}
 		catch (Throwable ex) {
-			for (int j = 0, e = works.size(); j < e; ++j) {
-				CompletableFuture<R> future = futures.get(j);
-				future.completeExceptionally(ex);
+			if (attempts == null) {
+				for (int j = 0, e = works.size(); j < e; ++j) {
+					CompletableFuture<R> future = futures.get(j);
+					future.completeExceptionally(ex);
+				}
+			}
+			else if (retryPolicy.isBisect() && works.size() > 1) {
+				// split the batch to isolate the failing items:
+				int size = works.size(), half = size/2;
+				runBatch(works.subList(0, half), futures.subList(0, half), attempts, offset);
+				runBatch(works.subList(half, size), futures.subList(half, size), attempts, offset+half);
+			}
+			else {
+				for (int j = 0, e = works.size(); j < e; ++j) {
+					retryOrFail(works.get(j), futures.get(j), attempts[offset+j]+1, ex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Re-enqueues the failed item after backoff, or fails it if retry policy gives up.
+	 *
+	 * @param attempt
+	 * 	number of attempts done so far, including the failed one
+	 */
+	private void retryOrFail(T work, CompletableFuture<R> future, int attempt, Throwable ex)
+	{
+		if (future.isDone() || !retryPolicy.shouldRetry(ex, attempt)) {
+			future.completeExceptionally(ex);
+			return;
+		}
+		// the scheduled retry holds batchPending, so close waits for it:
+		BATCH_PENDING_UPDATER.getAndIncrement(this);
+		try {
+			retryPolicy.getScheduler().schedule(() -> resubmit(work, future, attempt), retryPolicy.getDelayNs(attempt), TimeUnit.NANOSECONDS);
+		}
+		catch (Throwable ex2) {
+			ex.addSuppressed(ex2);
+			future.completeExceptionally(ex);
+			releaseBatchPending();
+		}
+	}
+
+	private void resubmit(T work, CompletableFuture<R> future, int attempt)
+	{
+		try {
+			while (!tryPush(pending, work, future, true, attempt)) ;
+		}
+		catch (Throwable ex) {
+			future.completeExceptionally(ex);
+		}
+		finally {
+			releaseBatchPending();
+		}
+	}
+
+	/**
+	 * Completes the results of ordered list to callers, as long as they are done in order.
+	 */
+	private void drainOrdered(OrderedResult<T, R> result)
+	{
+		if (orderedHead.next != result) {
+			return;
+		}
+		for (;;) {
+			if (!ORDERED_DRAINING_UPDATER.compareAndSet(this, 0, 1)) {
+				return;
+			}
+			for (;;) {
+				OrderedResult<T, R> item = orderedHead.next;
+				if (item == null || !item.isDone()) {
+					ORDERED_DRAINING_UPDATER.set(this, 0);
+					// the result may have been completed after the check but before the flag was released:
+					item = orderedHead.next;
+					if (item != null && item.isDone()) {
+						break;
+					}
+					return;
+				}
+				// only the draining thread moves the head, the completed item becomes the new sentinel:
+				orderedHead = item;
+				CompletableFuture<R> caller = item.caller;
+				item.handle((v, x) -> FutureUtil.completeOrFail(caller, v, x));
 			}
 		}
 	}
 
+	/**
+	 * Builder of {@link BatchWorkExecutor}.
+	 */
+	public static class Builder
+	{
+		private final CloseableExecutor executor;
+
+		private int batchSize;
+
+		private AdaptiveBatchSize adaptiveBatchSize;
+
+		private int minBatchSize = 1;
+
+		private long maxDelayNs = 0;
+
+		private ScheduledExecutorService scheduler;
+
+		private int maxPending = PENDING_MAX;
+
+		private SequencingExecutor.OverflowPolicy overflowPolicy = SequencingExecutor.OverflowPolicy.BLOCK;
+
+		private int maxRunningBatches = Integer.MAX_VALUE;
+
+		private BatchRetryPolicy retryPolicy;
+
+		private boolean orderedResults;
+
+		private Builder(CloseableExecutor executor)
+		{
+			this.executor = Objects.requireNonNull(executor, "executor");
+		}
+
+		/**
+		 * Sets fixed batch size.
+		 *
+		 * @param batchSize
+		 * 	max number of work items sent at once to processor
+		 *
+		 * @return
+		 * 	this builder.
+		 */
+		public Builder batchSize(int batchSize)
+		{
+			if (batchSize <= 0) {
+				throw new IllegalArgumentException("batchSize must be positive: "+batchSize);
+			}
+			this.batchSize = batchSize;
+			this.adaptiveBatchSize = null;
+			return this;
+		}
+
+		/**
+		 * Sets adaptive batch size, adapting to observed latency of processor.
+		 *
+		 * @param batchSize
+		 * 	controller of max number of work items sent at once to processor
+		 *
+		 * @return
+		 * 	this builder.
+		 */
+		public Builder adaptiveBatchSize(AdaptiveBatchSize batchSize)
+		{
+			this.adaptiveBatchSize = Objects.requireNonNull(batchSize, "batchSize");
+			this.batchSize = 0;
+			return this;
+		}
+
+		/**
+		 * Sets linger mode, starting the batch once {@code minBatchSize} items are pending or {@code maxDelay}
+		 * elapsed since the first pending item was submitted.  With adaptive batch size, the batch is started
+		 * immediately once the pending items reach the current batch size, even if it is lower than
+		 * {@code minBatchSize}.  The timers are run by {@link ScheduledUtil#sharedExecutor()} unless
+		 * {@link #scheduler(ScheduledExecutorService)} is set.
+		 *
+		 * @param minBatchSize
+		 * 	number of pending work items starting the batch immediately
+		 * @param maxDelay
+		 * 	max time to wait for more items since first item was submitted
+		 * @param timeUnit
+		 * 	unit of maxDelay
+		 *
+		 * @return
+		 * 	this builder.
+		 */
+		public Builder linger(int minBatchSize, long maxDelay, TimeUnit timeUnit)
+		{
+			if (minBatchSize <= 0) {
+				throw new IllegalArgumentException("minBatchSize must be positive: "+minBatchSize);
+			}
+			this.minBatchSize = minBatchSize;
+			this.maxDelayNs = timeUnit.toNanos(maxDelay);
+			return this;
+		}
+
+		/**
+		 * Sets scheduler running the linger timers.
+		 *
+		 * @param scheduler
+		 * 	scheduler running the maxDelay timers, only non-blocking tasks are run on it
+		 *
+		 * @return
+		 * 	this builder.
+		 */
+		public Builder scheduler(ScheduledExecutorService scheduler)
+		{
+			this.scheduler = Objects.requireNonNull(scheduler, "scheduler");
+			return this;
+		}
+
+		/**
+		 * Limits number of pending items.
+		 *
+		 * @param maxPending
+		 * 	max number of work items pending, not yet taken by batch
+		 * @param overflowPolicy
+		 * 	policy applied by {@link #submit(Object)} when the limit is reached, with
+		 * 	{@link SequencingExecutor.OverflowPolicy#ASYNC} the result future is returned immediately and the item
+		 * 	is admitted once there is space
+		 *
+		 * @return
+		 * 	this builder.
+		 */
+		public Builder maxPending(int maxPending, SequencingExecutor.OverflowPolicy overflowPolicy)
+		{
+			if (maxPending <= 0) {
+				throw new IllegalArgumentException("maxPending must be positive: "+maxPending);
+			}
+			this.maxPending = maxPending;
+			this.overflowPolicy = Objects.requireNonNull(overflowPolicy, "overflowPolicy");
+			return this;
+		}
+
+		/**
+		 * Limits number of running batches.  Once the limit is reached, the new items are accumulated in pending
+		 * queue and taken when running batch finishes, so slow processor results in larger batches rather than
+		 * more tasks on underlying executor.
+		 *
+		 * @param maxRunningBatches
+		 * 	max number of batches running concurrently
+		 *
+		 * @return
+		 * 	this builder.
+		 */
+		public Builder maxRunningBatches(int maxRunningBatches)
+		{
+			if (maxRunningBatches <= 0) {
+				throw new IllegalArgumentException("maxRunningBatches must be positive: "+maxRunningBatches);
+			}
+			this.maxRunningBatches = maxRunningBatches;
+			return this;
+		}
+
+		/**
+		 * Sets retry policy.  The items failed by processor, either individually or as whole batch, are
+		 * re-enqueued according to retry policy and processed as part of subsequent batches.  The item future is
+		 * failed once the policy gives up.
+		 *
+		 * @param retryPolicy
+		 * 	policy deciding about retries
+		 *
+		 * @return
+		 * 	this builder.
+		 */
+		public Builder retryPolicy(BatchRetryPolicy retryPolicy)
+		{
+			this.retryPolicy = Objects.requireNonNull(retryPolicy, "retryPolicy");
+			return this;
+		}
+
+		/**
+		 * Sets whether to complete the result futures in submission order.
+		 *
+		 * @param orderedResults
+		 * 	whether to complete the result futures in submission order
+		 *
+		 * @return
+		 * 	this builder.
+		 */
+		public Builder orderedResults(boolean orderedResults)
+		{
+			this.orderedResults = orderedResults;
+			return this;
+		}
+
+		/**
+		 * Builds the executor.
+		 *
+		 * @param processor
+		 * 	processing function
+		 *
+		 * @return
+		 * 	new executor
+		 *
+		 * @param <T>
+		 *	work item
+		 * @param <R>
+		 *      result
+		 */
+		public <T, R> BatchWorkExecutor<T, R> build(ThrowingFunction<List<T>, List<CompletableFuture<R>>, Exception> processor)
+		{
+			if (batchSize == 0 && adaptiveBatchSize == null) {
+				throw new IllegalStateException("batchSize or adaptiveBatchSize must be set");
+			}
+			ScheduledExecutorService scheduler = this.scheduler;
+			if (scheduler == null && minBatchSize > 1) {
+				scheduler = ScheduledUtil.sharedExecutor();
+			}
+			return new BatchWorkExecutor<>(executor, batchSize, adaptiveBatchSize, minBatchSize, maxDelayNs, scheduler, maxPending, overflowPolicy, maxRunningBatches, retryPolicy, orderedResults, processor);
+		}
+	}
+
+	/**
+	 * Internal result future in ordered mode, completing the caller future once all previous ones are completed.
+	 */
+	private static class OrderedResult<T, R> extends CompletableFuture<R>
+	{
+		/** Owning executor, null for sentinel. */
+		final BatchWorkExecutor<T, R> owner;
+
+		/** Future returned to caller. */
+		final CompletableFuture<R> caller = new CompletableFuture<>();
+
+		/** Next result in submission order. */
+		volatile OrderedResult<T, R> next;
+
+		public OrderedResult(BatchWorkExecutor<T, R> owner)
+		{
+			this.owner = owner;
+		}
+
+		@Override
+		public boolean complete(R value)
+		{
+			boolean completed = super.complete(value);
+			if (completed) {
+				owner.drainOrdered(this);
+			}
+			return completed;
+		}
+
+		@Override
+		public boolean completeExceptionally(Throwable ex)
+		{
+			boolean completed = super.completeExceptionally(ex);
+			if (completed) {
+				owner.drainOrdered(this);
+			}
+			return completed;
+		}
+	}
+
 	@AllArgsConstructor
+	private static class Admission<T, R>
+	{
+		final T work;
+
+		final CompletableFuture<R> future;
+	}
+
 	private static class Node<T, R>
 	{
-		int count;
+		final int count;
 
 		Node<T, R> next;
 
 		final T work;
 
 		final CompletableFuture<R> future;
+
+		/** First node of the pending chain, holding the started flag for whole chain. */
+		final Node<T, R> first;
+
+		/** Number of previous attempts to process the item. */
+		final int attempt;
+
+		/** Indicates the batch of this chain was started.  Used on first node only. */
+		volatile int started;
+
+		public Node(int count, Node<T, R> next, T work, CompletableFuture<R> future, int attempt)
+		{
+			this.count = count;
+			this.next = next;
+			this.work = work;
+			this.future = future;
+			this.attempt = attempt;
+			this.first = next != null ? next.first : this;
+		}
 	}
 }
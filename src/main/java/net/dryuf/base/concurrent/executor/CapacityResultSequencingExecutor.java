@@ -18,20 +18,35 @@ package net.dryuf.base.concurrent.executor;
 
 import lombok.RequiredArgsConstructor;
 import net.dryuf.base.concurrent.future.FutureUtil;
+import net.dryuf.base.exception.ExceptionUtil;
 import net.dryuf.base.function.ThrowingFunction;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * Executor sequencing the results and controlling pending items by capacity and count.
  *
  * Executor takes item capacity and count as parameters and blocks execution until sufficient resources are available.
+ * Alternatively, {@link #submitAsync(long, Callable, ThrowingFunction)} returns admission future instead of blocking.
+ * The waiting submissions are admitted in FIFO order by default, only the waiters which fit are woken, see
+ * {@link AdmissionPolicy}.
+ *
+ * The capacity of failed or cancelled task is returned immediately, without waiting for its predecessors to be
+ * completed.  The count of pending items is still returned in the order.
+ *
+ * The capacity may consist of several dimensions (such as memory, disk space and CPU tokens), the task is admitted
+ * only when all its dimensions fit and all of them are released at once when its result is completed.
  *
  * The results are completed in submission order and completor executed sequentially in this order.
  *
@@ -52,6 +67,11 @@ import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
  *         // The above execution will be limited by content lengths - if both fit within the limit, they will execute in parallel.
  *         // While both tasks may execute in parallel, the writeResult calls will be called sequentially, with content1 first,
  *         // even if processContent for content1 completed later
+ *
+ *         // Controlling pending execution by memory and disk space
+ *         try (CapacityResultSequencingExecutor executor = new CapacityResultSequencingExecutor(new long[]{ memory, disk }, 128)) {
+ *              CompletableFuture future = executor.submit(new long[]{ memorySize, diskSize }, () -> transcode(input), result -> writeResult(result));
+ *         }
  * </pre>
  */
 public class CapacityResultSequencingExecutor implements AutoCloseable
@@ -68,10 +88,7 @@ public class CapacityResultSequencingExecutor implements AutoCloseable
 	 */
 	public CapacityResultSequencingExecutor(long capacity, long count, CloseableExecutor executor)
 	{
-		this.capacity = capacity;
-		this.count = count;
-		this.executor = executor;
-		this.orderedTasks = new LinkedBlockingDeque<>();
+		this(new long[]{ capacity }, count, executor);
 	}
 
 	/**
@@ -102,17 +119,237 @@ public class CapacityResultSequencingExecutor implements AutoCloseable
 		this(capacity, count, new NotClosingExecutor(executor));
 	}
 
+	/**
+	 * Creates instance with multi-dimensional capacity from executor, closing it at close.
+	 *
+	 * @param capacities
+	 * 	max capacity of the executor, for each dimension
+	 * @param count
+	 * 	max number of pending items
+	 * @param executor
+	 * 	executor, closed at close
+	 */
+	public CapacityResultSequencingExecutor(long[] capacities, long count, CloseableExecutor executor)
+	{
+		this(capacities, count, AdmissionPolicy.FIFO, executor);
+	}
+
+	/**
+	 * Creates instance with multi-dimensional capacity and admission policy from executor, closing it at close.
+	 *
+	 * @param capacities
+	 * 	max capacity of the executor, for each dimension
+	 * @param count
+	 * 	max number of pending items
+	 * @param admissionPolicy
+	 * 	policy for admitting the waiting submissions
+	 * @param executor
+	 * 	executor, closed at close
+	 */
+	public CapacityResultSequencingExecutor(long[] capacities, long count, AdmissionPolicy admissionPolicy, CloseableExecutor executor)
+	{
+		if (capacities.length == 0) {
+			throw new IllegalArgumentException("capacities must have at least one dimension");
+		}
+		this.capacity = capacities.clone();
+		this.count = count;
+		this.admissionPolicy = Objects.requireNonNull(admissionPolicy, "admissionPolicy");
+		this.executor = executor;
+	}
+
+	/**
+	 * Creates instance with multi-dimensional capacity from common pool.
+	 *
+	 * @param capacities
+	 * 	max capacity of the executor, for each dimension
+	 * @param count
+	 * 	max number of pending items
+	 */
+	public CapacityResultSequencingExecutor(long[] capacities, long count)
+	{
+		this(capacities, count, CommonPoolExecutor.getInstance());
+	}
+
+	/**
+	 * Creates instance with multi-dimensional capacity from executor, not closing it at close.
+	 *
+	 * @param capacities
+	 * 	max capacity of the executor, for each dimension
+	 * @param count
+	 * 	max number of pending items
+	 * @param executor
+	 * 	executor, closed at close
+	 */
+	public CapacityResultSequencingExecutor(long[] capacities, long count, Executor executor)
+	{
+		this(capacities, count, new NotClosingExecutor(executor));
+	}
+
+	/**
+	 * Executes the task and runs completor in order of original submissions, blocking until sufficient capacity is
+	 * available.
+	 *
+	 * @param capacity
+	 *      capacity taken by the task
+	 * @param callable
+	 *      the task to be executed
+	 * @param completor
+	 *      handler processing the result
+	 *
+	 * @return
+	 *      future returning result from completor
+	 *
+	 * @param <T>
+	 *      type of task result
+	 * @param <R>
+	 *      type of completor result
+	 * @param <X>
+	 *      type of exception thrown from completor
+	 *
+	 * @throws RejectedExecutionException
+	 * 	if interrupted while waiting for capacity, the interrupted flag is kept set
+	 */
 	public <T, R, X extends Exception> CompletableFuture<R> submit(
 		long capacity,
 		Callable<T> callable,
 		ThrowingFunction<T, R, X> completor)
+	{
+		return awaitAdmission(submitAsync(capacity, callable, completor));
+	}
+
+	/**
+	 * Executes the task and runs completor in order of original submissions, blocking until sufficient capacity is
+	 * available in all dimensions.
+	 *
+	 * @param capacities
+	 *      capacity taken by the task, for each dimension of executor capacity
+	 * @param callable
+	 *      the task to be executed
+	 * @param completor
+	 *      handler processing the result
+	 *
+	 * @return
+	 *      future returning result from completor
+	 *
+	 * @param <T>
+	 *      type of task result
+	 * @param <R>
+	 *      type of completor result
+	 * @param <X>
+	 *      type of exception thrown from completor
+	 *
+	 * @throws RejectedExecutionException
+	 * 	if interrupted while waiting for capacity, the interrupted flag is kept set
+	 */
+	public <T, R, X extends Exception> CompletableFuture<R> submit(
+		long[] capacities,
+		Callable<T> callable,
+		ThrowingFunction<T, R, X> completor)
+	{
+		return awaitAdmission(submitAsync(capacities, callable, completor));
+	}
+
+	private static <R> CompletableFuture<R> awaitAdmission(CompletableFuture<CompletableFuture<R>> admission)
+	{
+		try {
+			return admission.get();
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			if (admission.cancel(false)) {
+				throw new RejectedExecutionException("Interrupted while waiting for capacity", ex);
+			}
+			// already admitted, just being started:
+			return admission.join();
+		}
+		catch (ExecutionException ex) {
+			throw ExceptionUtil.sneakyThrow(ex.getCause());
+		}
+	}
+
+	/**
+	 * Executes the task and runs completor in order of original submissions, without blocking the caller.
+	 *
+	 * The returned admission future completes once sufficient capacity is available and the task is submitted, the
+	 * waiting submissions are admitted according to {@link AdmissionPolicy}.  Cancelling the admission future before
+	 * it is completed withdraws the submission.
+	 *
+	 * @param capacity
+	 *      capacity taken by the task
+	 * @param callable
+	 *      the task to be executed
+	 * @param completor
+	 *      handler processing the result
+	 *
+	 * @return
+	 *      admission future, completed with future returning result from completor
+	 *
+	 * @param <T>
+	 *      type of task result
+	 * @param <R>
+	 *      type of completor result
+	 * @param <X>
+	 *      type of exception thrown from completor
+	 */
+	public <T, R, X extends Exception> CompletableFuture<CompletableFuture<R>> submitAsync(
+		long capacity,
+		Callable<T> callable,
+		ThrowingFunction<T, R, X> completor)
+	{
+		if (this.capacity.length != 1) {
+			throw new IllegalArgumentException("Executor has "+this.capacity.length+" capacity dimensions, got 1");
+		}
+		return submitAsync0(new long[]{ capacity }, callable, completor);
+	}
+
+	/**
+	 * Executes the task and runs completor in order of original submissions, without blocking the caller.
+	 *
+	 * The returned admission future completes once sufficient capacity is available in all dimensions and the task
+	 * is submitted, the waiting submissions are admitted according to {@link AdmissionPolicy}.  Cancelling the
+	 * admission future before it is completed withdraws the submission.
+	 *
+	 * @param capacities
+	 *      capacity taken by the task, for each dimension of executor capacity
+	 * @param callable
+	 *      the task to be executed
+	 * @param completor
+	 *      handler processing the result
+	 *
+	 * @return
+	 *      admission future, completed with future returning result from completor
+	 *
+	 * @param <T>
+	 *      type of task result
+	 * @param <R>
+	 *      type of completor result
+	 * @param <X>
+	 *      type of exception thrown from completor
+	 */
+	public <T, R, X extends Exception> CompletableFuture<CompletableFuture<R>> submitAsync(
+		long[] capacities,
+		Callable<T> callable,
+		ThrowingFunction<T, R, X> completor)
+	{
+		if (capacities.length != this.capacity.length) {
+			throw new IllegalArgumentException("Executor has "+this.capacity.length+" capacity dimensions, got "+
+				capacities.length);
+		}
+		return submitAsync0(capacities.clone(), callable, completor);
+	}
+
+	private <T, R, X extends Exception> CompletableFuture<CompletableFuture<R>> submitAsync0(
+		long[] capacities,
+		Callable<T> callable,
+		ThrowingFunction<T, R, X> completor)
 	{
 		Objects.requireNonNull(callable, "callable");
 		Objects.requireNonNull(completor, "completor");
-		ExecutionFuture<T, R, X> future = new ExecutionFuture<>(completor, capacity);
-		addFuture(capacity, future);
-		future.execute(callable, executor);
-		return future.wrapping;
+		Admission<T, R> admission = new Admission<>(new ExecutionFuture<>(completor, capacities), callable);
+		if (admitOrWait(admission)) {
+			admission.start();
+		}
+		return admission;
 	}
 
 	@Override
@@ -123,7 +360,7 @@ public class CapacityResultSequencingExecutor implements AutoCloseable
 			synchronized (isEmptySync) {
 				for (; ; ) {
 					try {
-						if (!orderedTasks.isEmpty())
+						if (head != tail || waiterCount != 0)
 							isEmptySync.wait();
 						break;
 					}
@@ -140,35 +377,91 @@ public class CapacityResultSequencingExecutor implements AutoCloseable
 		}
 	}
 
-	private synchronized void addFuture(long capacity, ExecutionFuture<?, ?, ?> future)
+	/**
+	 * Enqueues the future into sequence of results and takes the resources if they are available and the admission
+	 * policy allows bypassing the current waiters, otherwise adds it to waiters.
+	 *
+	 * @return
+	 * 	true if admitted, false if added to waiters.
+	 */
+	private synchronized boolean admitOrWait(Admission<?, ?> admission)
 	{
-		for (;;) {
-			if ((this.count <= 0 || capacity > this.capacity) && !orderedTasks.isEmpty()) {
-				try {
-					this.wait();
-				}
-				catch (InterruptedException e) {
-					throw new RuntimeException(e);
+		// the results are sequenced in submission order, even if admitted out of order:
+		enqueue(admission.future);
+		if ((admissionPolicy == AdmissionPolicy.FIRST_FIT || waiters.isEmpty()) && tryTake(admission.future)) {
+			return true;
+		}
+		waiters.add(admission);
+		++waiterCount;
+		return false;
+	}
+
+	/**
+	 * Takes the resources if available.  The item is admitted unconditionally once all its predecessors are
+	 * sequenced, so oversized item or the item passed over by {@link AdmissionPolicy#FIRST_FIT} cannot block the
+	 * results forever.  Must be called with this lock held.
+	 */
+	private boolean tryTake(ExecutionFuture<?, ?, ?> future)
+	{
+		if (head.next != future) {
+			if (this.count <= 0) {
+				return false;
+			}
+			for (int i = 0; i < this.capacity.length; ++i) {
+				if (future.capacity[i] > this.capacity[i]) {
+					return false;
 				}
 			}
-			else {
-				this.capacity -= capacity;
-				this.count -= 1;
-				try {
-					orderedTasks.put(future);
+		}
+		for (int i = 0; i < this.capacity.length; ++i) {
+			this.capacity[i] -= future.capacity[i];
+		}
+		this.count -= 1;
+		future.taken = true;
+		return true;
+	}
+
+	/**
+	 * Admits exactly the waiters which fit into available resources, according to admission policy.
+	 */
+	private void admitWaiters()
+	{
+		List<Admission<?, ?>> admitted = null;
+		synchronized (this) {
+			for (Iterator<Admission<?, ?>> it = waiters.iterator(); it.hasNext(); ) {
+				Admission<?, ?> admission = it.next();
+				if (tryTake(admission.future)) {
+					it.remove();
+					--waiterCount;
+					if (admitted == null) {
+						admitted = new ArrayList<>();
+					}
+					admitted.add(admission);
 				}
-				catch (InterruptedException e) {
-					throw new RuntimeException(e);
+				else if (admissionPolicy == AdmissionPolicy.FIFO || this.count <= 0) {
+					break;
 				}
-				break;
 			}
 		}
+		if (admitted != null) {
+			// started in admission order, which is also the order of results:
+			for (Admission<?, ?> admission: admitted) {
+				admission.start();
+			}
+		}
+	}
+
+	private void enqueue(ExecutionFuture<?, ?, ?> future)
+	{
+		// the future is linked before its task is started, so it is always reachable once completed:
+		ExecutionFuture<?, ?, ?> previous = TAIL_UPDATER.getAndSet(this, future);
+		previous.next = future;
 	}
 
 	@SuppressWarnings("unchecked")
 	private void processPending(ExecutionFuture<?, ?, ?> future)
 	{
-		if (orderedTasks.peek() != future)
+		if (head.next != future)
 			return;
 		for (;;) {
 			if (!PROCESSING_PENDING_UPDATER.compareAndSet(this, 0, 1))
@@ -176,10 +469,10 @@ public class CapacityResultSequencingExecutor implements AutoCloseable
 
 			for (;;) {
 				ExecutionFuture<Object, Object, Exception> item =
-					(ExecutionFuture<Object, Object, Exception>) orderedTasks.peek();
+					(ExecutionFuture<Object, Object, Exception>) head.next;
 				if (item == null || !item.isDone()) {
 					PROCESSING_PENDING_UPDATER.set(this, 0);
-					item = (ExecutionFuture<Object, Object, Exception>) orderedTasks.peek();
+					item = (ExecutionFuture<Object, Object, Exception>) head.next;
 					if (item != null && item.isDone()) {
 						break;
 					}
@@ -199,22 +492,67 @@ public class CapacityResultSequencingExecutor implements AutoCloseable
 				}
 				finally {
 					synchronized (this) {
-						this.capacity += item.capacity;
-						this.count += 1;
-						this.notify();
+						// only the thread holding processingPending moves the head, the consumed item
+						// becomes the new sentinel:
+						head = item;
+						if (item.taken) {
+							releaseCapacity(item);
+							this.count += 1;
+						}
+					}
+					if (waiterCount != 0) {
+						admitWaiters();
 					}
-					orderedTasks.remove();
 				}
 			}
 		}
 	}
 
+	/**
+	 * Returns the capacity of failed or cancelled item before its result is sequenced, so the following tasks do not
+	 * wait for its predecessors.  The count is still released only once the item is sequenced.
+	 */
+	private void releaseEarly(ExecutionFuture<?, ?, ?> item)
+	{
+		synchronized (this) {
+			if (item.capacityReleased) {
+				return;
+			}
+			releaseCapacity(item);
+		}
+		if (waiterCount != 0) {
+			admitWaiters();
+		}
+	}
+
+	/**
+	 * Returns the capacity of item, unless already returned.  Must be called with this lock held.
+	 */
+	private void releaseCapacity(ExecutionFuture<?, ?, ?> item)
+	{
+		if (!item.capacityReleased) {
+			item.capacityReleased = true;
+			for (int i = 0; i < this.capacity.length; ++i) {
+				this.capacity[i] += item.capacity[i];
+			}
+		}
+	}
+
 	@RequiredArgsConstructor
 	private class ExecutionFuture<T, R, X extends Exception> extends CompletableFuture<T>
 	{
 		private final ThrowingFunction<T, R, X> completor;
 
-		private final long capacity;
+		private final long[] capacity;
+
+		/** Next future in submission order. */
+		volatile ExecutionFuture<?, ?, ?> next;
+
+		/** Indicates the resources were taken, false if the submission was withdrawn while waiting.  Guarded by executor lock. */
+		boolean taken;
+
+		/** Indicates the capacity was already returned.  Guarded by executor lock. */
+		boolean capacityReleased;
 
 		private CompletableFuture<Void> underlying;
 
@@ -222,34 +560,125 @@ public class CapacityResultSequencingExecutor implements AutoCloseable
 			@Override
 			public boolean cancel(boolean interrupt)
 			{
-				return underlying.cancel(interrupt);
+				// once the task finished, only its sequencing is pending and it cannot be cancelled anymore:
+				if (!ExecutionFuture.this.cancel(interrupt)) {
+					return false;
+				}
+				underlying.cancel(interrupt);
+				releaseEarly(ExecutionFuture.this);
+				super.cancel(interrupt);
+				processPending(ExecutionFuture.this);
+				return true;
 			}
 		};
 
 		public void execute(Callable<T> callable, CloseableExecutor executor)
 		{
-			underlying = executor.submit(() -> {
+			try {
+				underlying = executor.submit(() -> {
 					try {
 						complete(callable.call());
 					}
 					catch (Throwable e) {
 						completeExceptionally(e);
+						releaseEarly(ExecutionFuture.this);
 					}
 					finally {
 						processPending(ExecutionFuture.this);
 					}
 					return null;
 				});
+			}
+			catch (Throwable ex) {
+				// the future is already enqueued, complete it so the following ones are not blocked:
+				underlying = FutureUtil.exception(ex);
+				completeExceptionally(ex);
+				processPending(this);
+				throw ex;
+			}
+		}
+	}
+
+	/**
+	 * Policy for admitting the submissions waiting for resources.
+	 */
+	public enum AdmissionPolicy
+	{
+		/**
+		 * Waiting submissions are admitted strictly in order, the first waiter which does not fit blocks the
+		 * following ones.  Large tasks are never passed over.
+		 */
+		FIFO,
+		/**
+		 * All waiting submissions which fit are admitted, in order, passing over the ones which do not fit.  This
+		 * improves throughput with mixed task sizes.  The results are still sequenced in submission order, so the
+		 * passed over submission is admitted at latest once all its predecessors are sequenced, even if the
+		 * submissions admitted after it still hold the capacity.
+		 */
+		FIRST_FIT,
+	}
+
+	/**
+	 * Submission waiting for resources.  Completed with the wrapping future once the task is admitted and submitted.
+	 */
+	@RequiredArgsConstructor
+	private class Admission<T, R> extends CompletableFuture<CompletableFuture<R>>
+	{
+		private final ExecutionFuture<T, R, ?> future;
+
+		private final Callable<T> callable;
+
+		public void start()
+		{
+			try {
+				future.execute(callable, executor);
+			}
+			catch (Throwable ex) {
+				completeExceptionally(ex);
+				return;
+			}
+			complete(future.wrapping);
+		}
+
+		@Override
+		public boolean cancel(boolean interrupt)
+		{
+			// only waiting submission can be withdrawn, once removed from waiters it is going to be started:
+			synchronized (CapacityResultSequencingExecutor.this) {
+				if (!waiters.remove(this)) {
+					return false;
+				}
+				--waiterCount;
+			}
+			// the submission is already in the sequence of results, complete it so the following ones are not blocked:
+			future.cancel(interrupt);
+			processPending(future);
+			// the following waiters may fit now:
+			admitWaiters();
+			return super.cancel(interrupt);
 		}
 	}
 
-	private long capacity;
+	/** Available capacity, for each dimension. */
+	private final long[] capacity;
 
 	private long count;
 
 	private final CloseableExecutor executor;
 
-	private final LinkedBlockingDeque<ExecutionFuture<?, ?, ?>> orderedTasks;
+	private final AdmissionPolicy admissionPolicy;
+
+	/** Submissions waiting for resources, in FIFO order.  Guarded by this lock. */
+	private final LinkedList<Admission<?, ?>> waiters = new LinkedList<>();
+
+	/** Number of waiters, allowing to check for waiters without the lock.  Updated under this lock. */
+	private volatile int waiterCount = 0;
+
+	/** Last consumed future, sentinel of the ordered list.  Updated only by the thread processing pending. */
+	private volatile ExecutionFuture<?, ?, ?> head = new ExecutionFuture<>(null, null);
+
+	/** Last submitted future, appended by producers. */
+	private volatile ExecutionFuture<?, ?, ?> tail = head;
 
 	private volatile int processingPending = 0;
 
@@ -257,5 +686,9 @@ public class CapacityResultSequencingExecutor implements AutoCloseable
 
 	private static final AtomicIntegerFieldUpdater<CapacityResultSequencingExecutor>  PROCESSING_PENDING_UPDATER =
 			AtomicIntegerFieldUpdater.newUpdater(CapacityResultSequencingExecutor.class, "processingPending");
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<CapacityResultSequencingExecutor, ExecutionFuture> TAIL_UPDATER =
+			AtomicReferenceFieldUpdater.newUpdater(CapacityResultSequencingExecutor.class, ExecutionFuture.class, "tail");
 }
 
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015-2022 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/dryuf/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dryuf.base.concurrent.executor;
+
+import net.dryuf.base.concurrent.future.FutureUtil;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+
+/**
+ * {@link WorkExecutor} coalescing identical work items, passing only one of them to delegate executor.
+ *
+ * The work item is identified by key, the item itself by default.  While the item with the same key is pending or
+ * processed by delegate, the new submissions share its slot and its result, so the delegate (typically
+ * {@link BatchWorkExecutor}) receives the hot key only once per batch.  Once the result is available, the key is
+ * forgotten and next submission is passed to delegate again.
+ *
+ * Each caller receives its own future, so cancelling it does not affect other callers.
+ *
+ * <pre>
+ *         try (WorkExecutor&lt;Long, User&gt; executor = new DeduplicatingWorkExecutor&lt;&gt;(new BatchWorkExecutor&lt;&gt;(delegateExecutor, 100, this::loadUsers))) {
+ *         	CompletableFuture&lt;User&gt; u1 = executor.submit(1L);
+ *         	CompletableFuture&lt;User&gt; u2 = executor.submit(1L);
+ *         	// loadUsers is called with single item
+ *         }
+ * </pre>
+ *
+ * @param <T>
+ *	work item
+ * @param <R>
+ *      result
+ */
+public class DeduplicatingWorkExecutor<T, R> implements WorkExecutor<T, R>
+{
+	private final WorkExecutor<T, R> delegate;
+
+	private final Function<? super T, ?> keyExtractor;
+
+	/** Pending work items by their key, mapped to their shared result. */
+	private final ConcurrentMap<Object, CompletableFuture<R>> inFlight = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates instance identifying the work items by their equals and hashCode, closing delegate upon close.
+	 *
+	 * @param delegate
+	 * 	delegate executor
+	 */
+	public DeduplicatingWorkExecutor(WorkExecutor<T, R> delegate)
+	{
+		this(delegate, Function.identity());
+	}
+
+	/**
+	 * Creates instance identifying the work items by key, closing delegate upon close.
+	 *
+	 * @param delegate
+	 * 	delegate executor
+	 * @param keyExtractor
+	 * 	function extracting the key from work item, the items with equal keys are considered identical
+	 */
+	public DeduplicatingWorkExecutor(WorkExecutor<T, R> delegate, Function<? super T, ?> keyExtractor)
+	{
+		this.delegate = delegate;
+		this.keyExtractor = keyExtractor;
+	}
+
+	@Override
+	public CompletableFuture<R> submit(T work)
+	{
+		Object key = Objects.requireNonNull(keyExtractor.apply(work), "key must not be null");
+		CompletableFuture<R> shared = inFlight.get(key);
+		if (shared == null) {
+			CompletableFuture<R> created = new CompletableFuture<>();
+			if ((shared = inFlight.putIfAbsent(key, created)) == null) {
+				shared = created;
+				CompletableFuture<R> result;
+				try {
+					result = delegate.submit(work);
+				}
+				catch (Throwable ex) {
+					inFlight.remove(key, created);
+					created.completeExceptionally(ex);
+					throw ex;
+				}
+				result.whenComplete((v, ex) -> {
+					// forget the key first, so the late callers do not receive stale result:
+					inFlight.remove(key, created);
+					FutureUtil.completeOrFail(created, v, ex);
+				});
+			}
+		}
+		CompletableFuture<R> future = new CompletableFuture<>();
+		FutureUtil.copy(shared, future);
+		return future;
+	}
+
+	/**
+	 * Closes the executor, closing the delegate.
+	 */
+	@Override
+	public void close()
+	{
+		delegate.close();
+	}
+}
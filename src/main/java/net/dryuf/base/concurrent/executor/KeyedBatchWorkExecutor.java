@@ -0,0 +1,210 @@
+/*
+ * Copyright 2015-2022 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/dryuf/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dryuf.base.concurrent.executor;
+
+import net.dryuf.base.concurrent.future.ScheduledUtil;
+import net.dryuf.base.function.ThrowingBiFunction;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+
+/**
+ * Executor accepting work items, processing items in batches grouped by key extracted from the item.
+ *
+ * Each key has its own pending batch, flushed independently by size or time as in {@link BatchWorkExecutor}, and the
+ * processor receives the key together with the items, so it can issue single request per shard without regrouping.
+ * The batches for all keys run on the same underlying executor.
+ *
+ * <pre>
+ *         try (WorkExecutor&lt;Row, Long&gt; executor = new KeyedBatchWorkExecutor&lt;&gt;(delegateExecutor, Row::getShard, 1000, 200, 10, TimeUnit.MILLISECONDS, this::bulkInsert)) {
+ *         	CompletableFuture&lt;Long&gt; id = executor.submit(row);
+ *         }
+ *         // at this point, all executions are finished (successfully or not), underlying executor closed
+ * </pre>
+ *
+ * The batch state for key is created upon first submission and kept until the executor is closed, so the executor is
+ * intended for bounded key spaces, such as shards or partitions.
+ *
+ * @param <K>
+ *      type of key
+ * @param <T>
+ *	work item
+ * @param <R>
+ *      result
+ */
+public class KeyedBatchWorkExecutor<K, T, R> implements WorkExecutor<T, R>
+{
+	private final CloseableExecutor executor;
+
+	private final Function<? super T, ? extends K> keyExtractor;
+
+	private final ThrowingBiFunction<K, List<T>, List<CompletableFuture<R>>, Exception> processor;
+
+	private final int batchSize;
+
+	/** Number of pending items starting the batch immediately, 1 if not lingering. */
+	private final int minBatchSize;
+
+	/** Max delay of the batch since first item submitted, in nanoseconds. */
+	private final long maxDelayNs;
+
+	/** Scheduler for maxDelay timers, null if not lingering. */
+	private final ScheduledExecutorService scheduler;
+
+	private final ConcurrentMap<K, BatchWorkExecutor<T, R>> batches = new ConcurrentHashMap<>();
+
+	private boolean closed = false;
+
+	/**
+	 * Creates instance from {@link CloseableExecutor}, closing it upon close.
+	 *
+	 * @param executor
+	 * 	underlying executor
+	 * @param keyExtractor
+	 * 	function extracting the key from work item
+	 * @param batchSize
+	 * 	max number of work items sent at once to processor
+	 * @param processor
+	 * 	processing function, receiving the key and items
+	 */
+	public KeyedBatchWorkExecutor(CloseableExecutor executor, Function<? super T, ? extends K> keyExtractor, int batchSize, ThrowingBiFunction<K, List<T>, List<CompletableFuture<R>>, Exception> processor)
+	{
+		this(executor, keyExtractor, batchSize, 1, 0, (ScheduledExecutorService) null, processor);
+	}
+
+	/**
+	 * Creates lingering instance from {@link CloseableExecutor}, closing it upon close.  The timers are run by
+	 * {@link ScheduledUtil#sharedExecutor()}.
+	 *
+	 * @param executor
+	 * 	underlying executor
+	 * @param keyExtractor
+	 * 	function extracting the key from work item
+	 * @param batchSize
+	 * 	max number of work items sent at once to processor
+	 * @param minBatchSize
+	 * 	number of pending work items for the same key starting the batch immediately
+	 * @param maxDelay
+	 * 	max time to wait for more items since first item for the key was submitted
+	 * @param timeUnit
+	 * 	unit of maxDelay
+	 * @param processor
+	 * 	processing function, receiving the key and items
+	 */
+	public KeyedBatchWorkExecutor(CloseableExecutor executor, Function<? super T, ? extends K> keyExtractor, int batchSize, int minBatchSize, long maxDelay, TimeUnit timeUnit, ThrowingBiFunction<K, List<T>, List<CompletableFuture<R>>, Exception> processor)
+	{
+		this(executor, keyExtractor, batchSize, minBatchSize, maxDelay, timeUnit, ScheduledUtil.sharedExecutor(), processor);
+	}
+
+	/**
+	 * Creates lingering instance from {@link CloseableExecutor}, closing it upon close.
+	 *
+	 * @param executor
+	 * 	underlying executor
+	 * @param keyExtractor
+	 * 	function extracting the key from work item
+	 * @param batchSize
+	 * 	max number of work items sent at once to processor
+	 * @param minBatchSize
+	 * 	number of pending work items for the same key starting the batch immediately
+	 * @param maxDelay
+	 * 	max time to wait for more items since first item for the key was submitted
+	 * @param timeUnit
+	 * 	unit of maxDelay
+	 * @param scheduler
+	 * 	scheduler running the maxDelay timers, only non-blocking tasks are run on it
+	 * @param processor
+	 * 	processing function, receiving the key and items
+	 */
+	public KeyedBatchWorkExecutor(CloseableExecutor executor, Function<? super T, ? extends K> keyExtractor, int batchSize, int minBatchSize, long maxDelay, TimeUnit timeUnit, ScheduledExecutorService scheduler, ThrowingBiFunction<K, List<T>, List<CompletableFuture<R>>, Exception> processor)
+	{
+		this(executor, keyExtractor, batchSize, minBatchSize, timeUnit.toNanos(maxDelay), Objects.requireNonNull(scheduler, "scheduler"), processor);
+	}
+
+	private KeyedBatchWorkExecutor(CloseableExecutor executor, Function<? super T, ? extends K> keyExtractor, int batchSize, int minBatchSize, long maxDelayNs, ScheduledExecutorService scheduler, ThrowingBiFunction<K, List<T>, List<CompletableFuture<R>>, Exception> processor)
+	{
+		if (minBatchSize <= 0) {
+			throw new IllegalArgumentException("minBatchSize must be positive: "+minBatchSize);
+		}
+		this.executor = executor;
+		this.keyExtractor = Objects.requireNonNull(keyExtractor, "keyExtractor");
+		this.batchSize = batchSize;
+		this.minBatchSize = minBatchSize;
+		this.maxDelayNs = maxDelayNs;
+		this.scheduler = scheduler;
+		this.processor = processor;
+	}
+
+	@Override
+	public CompletableFuture<R> submit(T work)
+	{
+		K key = Objects.requireNonNull(keyExtractor.apply(work), "key must not be null");
+		BatchWorkExecutor<T, R> batch = batches.get(key);
+		if (batch == null) {
+			batch = createBatch(key);
+		}
+		return batch.submit(work);
+	}
+
+	/**
+	 * Closes the executor, waiting for batches of all keys to finish and closing underlying executor.
+	 */
+	@Override
+	public void close()
+	{
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		for (BatchWorkExecutor<T, R> batch: batches.values()) {
+			batch.close();
+		}
+		executor.close();
+	}
+
+	private synchronized BatchWorkExecutor<T, R> createBatch(K key)
+	{
+		if (closed) {
+			throw new RejectedExecutionException("Executor closed");
+		}
+		return batches.computeIfAbsent(key, (key0) -> {
+			// each key waits for its own tasks only, the underlying executor is closed by this executor:
+			CloseableExecutor keyExecutor = new NotClosingExecutor(executor);
+			ThrowingBiFunction<K, List<T>, List<CompletableFuture<R>>, Exception> processor = this.processor;
+			if (scheduler != null) {
+				return BatchWorkExecutor.builder(keyExecutor)
+					.batchSize(batchSize)
+					.linger(minBatchSize, maxDelayNs, TimeUnit.NANOSECONDS)
+					.scheduler(scheduler)
+					.build((l) -> processor.apply(key0, l));
+			}
+			else {
+				return new BatchWorkExecutor<>(keyExecutor, batchSize, (l) -> processor.apply(key0, l));
+			}
+		});
+	}
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2015-2022 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/dryuf/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dryuf.base.concurrent.executor;
+
+import lombok.AllArgsConstructor;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+
+/**
+ * Executor sequentially executing the tasks with the same key.
+ *
+ * The tasks for the same key are run in order of submission and they run sequentially, no two running at the same
+ * time.  The tasks for different keys run in parallel on the underlying executor.  The queue for key is created upon
+ * first submission and removed once all its tasks are executed, so the executor does not hold any memory for idle
+ * keys.  It waits for submitted tasks to finish upon close.
+ *
+ * Usage:
+ *
+ * <pre>
+ *         try (KeyedSequencingExecutor&lt;String&gt; executor = new KeyedSequencingExecutor&lt;&gt;()) {
+ *            	executor.execute("first", () -> System.out.println("first-25"));
+ *            	executor.execute("second", () -> System.out.println("second-25"));
+ *            	executor.execute("first", () -> System.out.println("first-36"));
+ *         }
+ *         // the above tasks will be completed at this point.
+ *         // the above will always print first-25 before first-36, second-25 may be printed anytime
+ * </pre>
+ *
+ * @param <K>
+ *      type of key
+ */
+public class KeyedSequencingExecutor<K> implements AutoCloseable
+{
+	/**
+	 * Creates instance from executor, closing it upon close.
+	 *
+	 * @param executor
+	 * 	underlying executor
+	 */
+	public KeyedSequencingExecutor(CloseableExecutor executor)
+	{
+		this.executor = executor;
+	}
+
+	/**
+	 * Creates instance from executor, not closing it upon close.
+	 *
+	 * @param executor
+	 * 	underlying executor
+	 */
+	public KeyedSequencingExecutor(Executor executor)
+	{
+		this(new UncontrolledCloseableExecutor(executor));
+	}
+
+	/**
+	 * Creates instance from common pool executor.
+	 */
+	public KeyedSequencingExecutor()
+	{
+		this(CommonPoolExecutor.getInstance());
+	}
+
+	/**
+	 * Executes the task, sequentially with other tasks for the same key.
+	 *
+	 * @param key
+	 * 	key identifying the sequence
+	 * @param runnable
+	 * 	task to execute
+	 *
+	 * @throws RejectedExecutionException
+	 * 	if the executor is closed or underlying executor rejected the execution
+	 */
+	public void execute(K key, Runnable runnable)
+	{
+		Objects.requireNonNull(key, "key must not be null");
+		Objects.requireNonNull(runnable, "runnable must not be null");
+		for (;;) {
+			int old = pending;
+			if ((old&Integer.MIN_VALUE) != 0) {
+				throw new RejectedExecutionException("Executor closed");
+			}
+			else if (PENDING_UPDATER.compareAndSet(this, old, old+1)) {
+				break;
+			}
+		}
+		try {
+			enqueue(key, runnable);
+		}
+		catch (Throwable ex) {
+			release();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Submits the task, sequentially with other tasks for the same key.
+	 *
+	 * @param key
+	 * 	key identifying the sequence
+	 * @param callable
+	 * 	task callable
+	 *
+	 * @return
+	 * 	CompletableFuture completing when task finishes
+	 *
+	 * @param <T>
+	 *      type of result
+	 */
+	public <T> CompletableFuture<T> submit(K key, Callable<T> callable)
+	{
+		CompletableFutureTask<T> task = new CompletableFutureTask<>(callable);
+		execute(key, task);
+		return task;
+	}
+
+	/**
+	 * Closes the executor, waiting for all submitted tasks to finish and closing underlying executor.
+	 *
+	 * If interrupted, the method sets interrupted flag on this thread.
+	 */
+	@Override
+	public void close()
+	{
+		boolean interrupted = false;
+		try {
+			int old = PENDING_UPDATER.getAndUpdate(this, v -> v|Integer.MIN_VALUE);
+			if ((old&Integer.MIN_VALUE) != 0) {
+				return;
+			}
+			synchronized (this) {
+				while ((pending&Integer.MAX_VALUE) != 0) {
+					try {
+						wait();
+					}
+					catch (InterruptedException ex) {
+						interrupted = true;
+					}
+				}
+			}
+			executor.close();
+		}
+		finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void enqueue(K key, Runnable runnable)
+	{
+		for (;;) {
+			KeyQueue<K> queue = queues.get(key);
+			if (queue == null) {
+				KeyQueue<K> created = new KeyQueue<>(this, key);
+				synchronized (created) {
+					if ((queue = queues.putIfAbsent(key, created)) == null) {
+						try {
+							executor.execute(created);
+						}
+						catch (Throwable ex) {
+							created.pending = RETIRED;
+							queues.remove(key, created);
+							throw ex;
+						}
+						created.pending = new Node(null, runnable);
+						return;
+					}
+				}
+			}
+			if (queue.push(runnable)) {
+				return;
+			}
+		}
+	}
+
+	private void release()
+	{
+		int old = PENDING_UPDATER.getAndDecrement(this);
+		if (old == (Integer.MIN_VALUE|1)) {
+			synchronized (this) {
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Queue of tasks for single key.  The queue is retired once it is empty and removed from the map, the producers
+	 * finding retired queue create new one.
+	 *
+	 * @param <K>
+	 *      type of key
+	 */
+	@RequiredArgsConstructor
+	private static class KeyQueue<K> implements Runnable
+	{
+		private final KeyedSequencingExecutor<K> owner;
+
+		private final K key;
+
+		/** List of pending tasks in opposite order, or one of STARTING, LOCK and RETIRED special values. */
+		volatile Node pending = STARTING;
+
+		boolean push(Runnable runnable)
+		{
+			for (;;) {
+				Node last = pending;
+				if (last == STARTING) {
+					synchronized (this) {
+						// just waiting for the thread currently starting the queue to finish its update
+					}
+				}
+				else if (last == RETIRED) {
+					owner.queues.remove(key, this);
+					return false;
+				}
+				else if (QUEUE_PENDING_UPDATER.compareAndSet(this, last, new Node(last == LOCK ? null : last, runnable))) {
+					return true;
+				}
+			}
+		}
+
+		@Override
+		public void run()
+		{
+			synchronized (this) {
+			}
+			for (;;) {
+				Node last = QUEUE_PENDING_UPDATER.getAndSet(this, LOCK);
+				if (last == LOCK) {
+					if (QUEUE_PENDING_UPDATER.compareAndSet(this, LOCK, RETIRED)) {
+						owner.queues.remove(key, this);
+						return;
+					}
+					continue;
+				}
+				Node first = null;
+				for (Node next = last; next != null; ) {
+					Node nextNext = next.next;
+					next.next = first;
+					first = next;
+					next = nextNext;
+				}
+				for (; first != null; first = first.next) {
+					try {
+						first.task.run();
+					}
+					catch (Throwable ex) {
+						// ignore failure in runnable, should be reported by Future inside instead
+					}
+					finally {
+						owner.release();
+					}
+				}
+			}
+		}
+	}
+
+	@AllArgsConstructor
+	private static class Node
+	{
+		Node next;
+
+		final Runnable task;
+	}
+
+	private final CloseableExecutor executor;
+
+	private final ConcurrentMap<K, KeyQueue<K>> queues = new ConcurrentHashMap<>();
+
+	/** Number of pending tasks.  Or-ed by Integer.MIN_VALUE when closed. */
+	private volatile int pending = 0;
+
+	/** Special value indicating the producer is starting the queue. */
+	private static final Node STARTING = new Node(null, null);
+
+	/** Special value indicating the queue is running and no tasks are pending. */
+	private static final Node LOCK = new Node(null, null);
+
+	/** Special value indicating the queue finished and was removed from map. */
+	private static final Node RETIRED = new Node(null, null);
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<KeyedSequencingExecutor> PENDING_UPDATER =
+		AtomicIntegerFieldUpdater.newUpdater(KeyedSequencingExecutor.class, "pending");
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<KeyQueue, Node> QUEUE_PENDING_UPDATER =
+		AtomicReferenceFieldUpdater.newUpdater(KeyQueue.class, Node.class, "pending");
+}
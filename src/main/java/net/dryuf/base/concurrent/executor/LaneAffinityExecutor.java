@@ -0,0 +1,175 @@
+/*
+ * Copyright 2015-2022 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/dryuf/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dryuf.base.concurrent.executor;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * {@link CloseableExecutor} consisting of fixed number of single-thread lanes, allowing tasks to prefer specific lane.
+ *
+ * The {@link #affinity(Object)} returns view of this executor which runs the tasks on lane selected by key hash, so
+ * tasks for the same key keep running on the same thread and their data stay in the same CPU caches.  The task is
+ * handed over to the least loaded lane only if the preferred lane has more than {@code overloadThreshold} tasks
+ * pending.  Tasks executed directly on this executor are distributed round-robin.
+ *
+ * Typical use is the underlying executor for {@link SequencingExecutor} handling stateful protocol:
+ *
+ * <pre>
+ *         try (LaneAffinityExecutor lanes = new LaneAffinityExecutor(4, 64)) {
+ *                 SequencingExecutor connectionExecutor = new SequencingExecutor(lanes.affinity(connection));
+ *                 connectionExecutor.execute(() -> handleInput(connection));
+ *                 ...
+ *         }
+ *         // at this point, all tasks are finished and the lane threads terminated
+ * </pre>
+ */
+public class LaneAffinityExecutor extends AbstractCloseableExecutor
+{
+	/** Counter of instances, distinguishing the thread names. */
+	private static final AtomicInteger INSTANCE_COUNTER = new AtomicInteger();
+
+	private final ThreadPoolExecutor[] lanes;
+
+	private final int overloadThreshold;
+
+	private final AtomicInteger roundRobin = new AtomicInteger();
+
+	/**
+	 * Constructs the executor with lane per available processor.
+	 */
+	public LaneAffinityExecutor()
+	{
+		this(Runtime.getRuntime().availableProcessors(), 64);
+	}
+
+	/**
+	 * Constructs the executor.
+	 *
+	 * @param lanes
+	 * 	number of lanes (threads)
+	 * @param overloadThreshold
+	 * 	number of pending tasks in preferred lane after which the task is handed over to least loaded lane
+	 */
+	public LaneAffinityExecutor(int lanes, int overloadThreshold)
+	{
+		if (lanes <= 0) {
+			throw new IllegalArgumentException("lanes must be positive: "+lanes);
+		}
+		if (overloadThreshold <= 0) {
+			throw new IllegalArgumentException("overloadThreshold must be positive: "+overloadThreshold);
+		}
+		this.overloadThreshold = overloadThreshold;
+		this.lanes = new ThreadPoolExecutor[lanes];
+		String namePrefix = LaneAffinityExecutor.class.getName()+"-"+INSTANCE_COUNTER.incrementAndGet()+"-";
+		for (int i = 0; i < lanes; ++i) {
+			String name = namePrefix+i;
+			this.lanes[i] = new ThreadPoolExecutor(
+				1, 1,
+				0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>(),
+				(runnable) -> {
+					Thread t = new Thread(runnable);
+					t.setName(name);
+					t.setDaemon(true);
+					return t;
+				}
+			);
+		}
+	}
+
+	/**
+	 * Gets view of this executor preferring the lane selected by the key.  Closing the view waits for tasks
+	 * submitted via the view but does not close this executor.
+	 *
+	 * @param key
+	 * 	key selecting the lane, by its hash code
+	 *
+	 * @return
+	 * 	executor running the tasks on the preferred lane
+	 */
+	public CloseableExecutor affinity(Object key)
+	{
+		int hash = key.hashCode();
+		int lane = ((hash^(hash>>>16))&Integer.MAX_VALUE)%lanes.length;
+		return new AbstractCloseableExecutor()
+		{
+			@Override
+			protected void execute0(Runnable runnable)
+			{
+				executeOnLane(lane, runnable);
+			}
+		};
+	}
+
+	@Override
+	protected void execute0(Runnable runnable)
+	{
+		executeOnLane((roundRobin.getAndIncrement()&Integer.MAX_VALUE)%lanes.length, runnable);
+	}
+
+	@Override
+	protected boolean closeExecutor()
+	{
+		if (super.closeExecutor()) {
+			for (ThreadPoolExecutor lane: lanes) {
+				lane.shutdown();
+			}
+			boolean interrupted = false;
+			try {
+				for (ThreadPoolExecutor lane: lanes) {
+					for (;;) {
+						try {
+							if (lane.awaitTermination(Integer.MAX_VALUE, TimeUnit.MILLISECONDS)) {
+								break;
+							}
+						}
+						catch (InterruptedException e) {
+							interrupted = true;
+						}
+					}
+				}
+			}
+			finally {
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private void executeOnLane(int preferred, Runnable runnable)
+	{
+		ThreadPoolExecutor lane = lanes[preferred];
+		if (lane.getQueue().size() > overloadThreshold) {
+			int leastSize = Integer.MAX_VALUE;
+			for (ThreadPoolExecutor candidate: lanes) {
+				int size = candidate.getQueue().size();
+				if (size < leastSize) {
+					leastSize = size;
+					lane = candidate;
+				}
+			}
+		}
+		lane.execute(runnable);
+	}
+}
@@ -22,14 +22,15 @@ import net.dryuf.base.function.ThrowingConsumer;
 import net.dryuf.base.function.ThrowingFunction;
 
 import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 
 /**
@@ -112,15 +113,44 @@ public class ResultSequencingExecutor implements AutoCloseable
 	{
 		Objects.requireNonNull(callable, "callable");
 		Objects.requireNonNull(completor, "completor");
-		ExecutionFuture<T, R, X> future = new ExecutionFuture<>(completor);
+		ExecutionFuture<T, R, X> future = new ExecutionFuture<>(completor, null);
 
-		try {
-			orderedTasks.put(future);
-			future.execute(callable, executor);
-		}
-		catch (InterruptedException e) {
-			throw new RejectedExecutionException(e);
-		}
+		enqueue(future);
+		future.execute(callable, executor);
+		return future.wrapping;
+	}
+
+	/**
+	 * Executes the task and passes its result to batch completor, in order of original submissions.
+	 *
+	 * The results of all contiguous successfully completed tasks submitted with the same batch completor instance are
+	 * passed in single call, allowing single write or flush for multiple results.  Failed task is not passed to batch
+	 * completor, its returned future is completed exceptionally instead.
+	 *
+	 * @param callable
+	 *      the task to be executed
+	 * @param batchCompletor
+	 *      handler processing the list of results, the same instance must be passed to all submissions which should
+	 *      be batched together
+	 *
+	 * @return
+	 *      future completed once the batch containing the result is processed by batch completor
+	 *
+	 * @param <T>
+	 *      type of task result
+	 * @param <X>
+	 *      type of exception thrown from batch completor
+	 */
+	public <T, X extends Exception> CompletableFuture<Void> submitBatched(
+		Callable<T> callable,
+		ThrowingConsumer<List<T>, X> batchCompletor)
+	{
+		Objects.requireNonNull(callable, "callable");
+		Objects.requireNonNull(batchCompletor, "batchCompletor");
+		ExecutionFuture<T, Void, X> future = new ExecutionFuture<>(null, batchCompletor);
+
+		enqueue(future);
+		future.execute(callable, executor);
 		return future.wrapping;
 	}
 
@@ -132,7 +162,7 @@ public class ResultSequencingExecutor implements AutoCloseable
 			synchronized (isEmptySync) {
 				for (; ; ) {
 					try {
-						if (!orderedTasks.isEmpty())
+						if (head != tail)
 							isEmptySync.wait();
 						break;
 					}
@@ -149,10 +179,17 @@ public class ResultSequencingExecutor implements AutoCloseable
 		}
 	}
 
+	private void enqueue(ExecutionFuture<?, ?, ?> future)
+	{
+		// the future is linked before its task is started, so it is always reachable once completed:
+		ExecutionFuture<?, ?, ?> previous = TAIL_UPDATER.getAndSet(this, future);
+		previous.next = future;
+	}
+
 	@SuppressWarnings("unchecked")
 	private void processPending(ExecutionFuture<?, ?, ?> future)
 	{
-		if (orderedTasks.peek() != future)
+		if (head.next != future)
 			return;
 		for (;;) {
 			if (!PROCESSING_PENDING_UPDATER.compareAndSet(this, 0, 1))
@@ -160,10 +197,10 @@ public class ResultSequencingExecutor implements AutoCloseable
 
 			for (;;) {
 				ExecutionFuture<Object, Object, Exception> item =
-					(ExecutionFuture<Object, Object, Exception>) orderedTasks.peek();
+					(ExecutionFuture<Object, Object, Exception>) head.next;
 				if (item == null || !item.isDone()) {
 					PROCESSING_PENDING_UPDATER.set(this, 0);
-					item = (ExecutionFuture<Object, Object, Exception>) orderedTasks.peek();
+					item = (ExecutionFuture<Object, Object, Exception>) head.next;
 					if (item != null && item.isDone()) {
 						break;
 					}
@@ -174,7 +211,13 @@ public class ResultSequencingExecutor implements AutoCloseable
 					}
 					return;
 				}
-				item = (ExecutionFuture<Object, Object, Exception>) orderedTasks.remove();
+				// only the thread holding processingPending moves the head, the consumed item becomes the new
+				// sentinel:
+				head = item;
+				if (item.batchCompletor != null && !item.isCompletedExceptionally()) {
+					completeBatch(item);
+					continue;
+				}
 				try {
 					Object taskResult = FutureUtil.sneakyGet(item);
 					item.wrapping.complete(item.completor.apply(taskResult));
@@ -186,6 +229,43 @@ public class ResultSequencingExecutor implements AutoCloseable
 		}
 	}
 
+	@SuppressWarnings("unchecked")
+	private void completeBatch(ExecutionFuture<Object, Object, Exception> first)
+	{
+		List<Object> results = new ArrayList<>();
+		results.add(first.getNow(null));
+		ExecutionFuture<Object, Object, Exception> last = first;
+		for (;;) {
+			ExecutionFuture<Object, Object, Exception> next = (ExecutionFuture<Object, Object, Exception>) last.next;
+			if (next == null || next.batchCompletor != first.batchCompletor ||
+				!next.isDone() || next.isCompletedExceptionally()) {
+				break;
+			}
+			results.add(next.getNow(null));
+			last = next;
+		}
+		head = last;
+		Throwable failure = null;
+		try {
+			first.batchCompletor.accept(results);
+		}
+		catch (Throwable e) {
+			failure = e;
+		}
+		for (ExecutionFuture<Object, Object, Exception> item = first; ;
+			item = (ExecutionFuture<Object, Object, Exception>) item.next) {
+			if (failure == null) {
+				item.wrapping.complete(null);
+			}
+			else {
+				item.wrapping.completeExceptionally(failure);
+			}
+			if (item == last) {
+				break;
+			}
+		}
+	}
+
 	@RequiredArgsConstructor
 	private class ExecutionFuture<T, R, X extends Exception> extends CompletableFuture<T>
 	{
@@ -193,6 +273,12 @@ public class ResultSequencingExecutor implements AutoCloseable
 
 		private final ThrowingFunction<T, R, X> completor;
 
+		/** Batch completor, used instead of completor if not null. */
+		private final ThrowingConsumer<List<T>, X> batchCompletor;
+
+		/** Next future in submission order. */
+		volatile ExecutionFuture<?, ?, ?> next;
+
 		private final CompletableFuture<R> wrapping = new CompletableFuture<R>() {
 			@Override
 			public boolean cancel(boolean interrupt)
@@ -220,7 +306,11 @@ public class ResultSequencingExecutor implements AutoCloseable
 
 	private final CloseableExecutor executor;
 
-	private final LinkedBlockingDeque<ExecutionFuture<?, ?, ?>> orderedTasks = new LinkedBlockingDeque<>();
+	/** Last consumed future, sentinel of the ordered list.  Updated only by the thread processing pending. */
+	private volatile ExecutionFuture<?, ?, ?> head = new ExecutionFuture<>(null, null);
+
+	/** Last submitted future, appended by producers. */
+	private volatile ExecutionFuture<?, ?, ?> tail = head;
 
 	private volatile int processingPending = 0;
 
@@ -228,4 +318,8 @@ public class ResultSequencingExecutor implements AutoCloseable
 
 	private static final AtomicIntegerFieldUpdater<ResultSequencingExecutor>  PROCESSING_PENDING_UPDATER =
 		AtomicIntegerFieldUpdater.newUpdater(ResultSequencingExecutor.class, "processingPending");
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<ResultSequencingExecutor, ExecutionFuture> TAIL_UPDATER =
+		AtomicReferenceFieldUpdater.newUpdater(ResultSequencingExecutor.class, ExecutionFuture.class, "tail");
 }
@@ -21,8 +21,11 @@ import lombok.extern.java.Log;
 import net.dryuf.base.concurrent.future.FutureUtil;
 
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.logging.Level;
 
@@ -43,6 +46,16 @@ import java.util.logging.Level;
  *         // the above tasks will be completed at this point.
  *         // the above will always print 25 and then 36, the tasks will never run in parallel
  * </pre>
+ *
+ * The number of pending tasks can be bounded by {@code maxPending} parameter.  When the limit is reached, the
+ * {@link OverflowPolicy} decides whether {@link #execute(Runnable)} blocks, rejects the task or queues it until
+ * admitted.  Asynchronous producers can use {@link #executeAsync(Runnable)} which returns admission ticket, completed
+ * once the task is admitted into the queue.  The admission is tracked by separate counter, the queue itself is still
+ * lock-free.
+ *
+ * By default, the sequence occupies the underlying executor thread as long as there are tasks pending.  The
+ * {@code drainMaxTasks} and {@code drainMaxNanos} parameters limit this, so a busy sequence does not starve other
+ * sequences sharing the same underlying executor.
  */
 @Log
 public class SequencingExecutor extends AbstractCloseableExecutor
@@ -55,7 +68,79 @@ public class SequencingExecutor extends AbstractCloseableExecutor
 	 */
 	public SequencingExecutor(CloseableExecutor executor)
 	{
+		this(executor, Integer.MAX_VALUE, OverflowPolicy.BLOCK);
+	}
+
+	/**
+	 * Creates instance from executor, closing it upon close, limiting number of pending tasks.
+	 *
+	 * @param executor
+	 * 	underlying executor
+	 * @param maxPending
+	 * 	maximum number of tasks pending or running, Integer.MAX_VALUE for unlimited
+	 * @param overflowPolicy
+	 * 	policy applied by {@link #execute(Runnable)} when the limit is reached
+	 */
+	public SequencingExecutor(CloseableExecutor executor, int maxPending, OverflowPolicy overflowPolicy)
+	{
+		this(executor, maxPending, overflowPolicy, Integer.MAX_VALUE, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Creates instance from executor, closing it upon close, limiting number of pending tasks and the time the
+	 * sequence occupies the underlying executor thread.
+	 *
+	 * Once the drain budget is exhausted, the sequence resubmits itself to underlying executor and releases the
+	 * thread, so other sequences sharing the same executor get their turn.
+	 *
+	 * @param executor
+	 * 	underlying executor
+	 * @param maxPending
+	 * 	maximum number of tasks pending or running, Integer.MAX_VALUE for unlimited
+	 * @param overflowPolicy
+	 * 	policy applied by {@link #execute(Runnable)} when the limit is reached
+	 * @param drainMaxTasks
+	 * 	maximum number of tasks run before yielding the thread, Integer.MAX_VALUE for unlimited
+	 * @param drainMaxNanos
+	 * 	maximum time in nanoseconds before yielding the thread, Long.MAX_VALUE for unlimited
+	 */
+	public SequencingExecutor(
+		CloseableExecutor executor,
+		int maxPending,
+		OverflowPolicy overflowPolicy,
+		int drainMaxTasks,
+		long drainMaxNanos
+	)
+	{
+		if (maxPending <= 0) {
+			throw new IllegalArgumentException("maxPending must be positive: "+maxPending);
+		}
+		if (drainMaxTasks <= 0) {
+			throw new IllegalArgumentException("drainMaxTasks must be positive: "+drainMaxTasks);
+		}
+		if (drainMaxNanos <= 0) {
+			throw new IllegalArgumentException("drainMaxNanos must be positive: "+drainMaxNanos);
+		}
 		this.executor = executor;
+		this.maxPending = maxPending;
+		this.overflowPolicy = Objects.requireNonNull(overflowPolicy, "overflowPolicy");
+		this.drainMaxTasks = drainMaxTasks;
+		this.drainMaxNanos = drainMaxNanos;
+	}
+
+	/**
+	 * Creates instance from executor, not closing it upon close, limiting number of pending tasks.
+	 *
+	 * @param executor
+	 * 	underlying executor
+	 * @param maxPending
+	 * 	maximum number of tasks pending or running, Integer.MAX_VALUE for unlimited
+	 * @param overflowPolicy
+	 * 	policy applied by {@link #execute(Runnable)} when the limit is reached
+	 */
+	public SequencingExecutor(Executor executor, int maxPending, OverflowPolicy overflowPolicy)
+	{
+		this(new UncontrolledCloseableExecutor(executor), maxPending, overflowPolicy);
 	}
 
 	/**
@@ -77,8 +162,162 @@ public class SequencingExecutor extends AbstractCloseableExecutor
 		this(CommonPoolExecutor.getInstance());
 	}
 
+	/**
+	 * Executes the task once there is capacity in the queue, without blocking the caller.
+	 *
+	 * The task is admitted immediately if the executor is unbounded or below {@code maxPending}, otherwise the ticket
+	 * is completed once a slot is released by earlier tasks, in order of submission.
+	 *
+	 * @param runnable
+	 * 	task to execute
+	 *
+	 * @return
+	 * 	admission ticket, completed once the task is admitted into the queue or completed exceptionally with
+	 * 	{@link RejectedExecutionException} if the executor was closed in the meantime.
+	 */
+	public CompletableFuture<Void> executeAsync(Runnable runnable)
+	{
+		Objects.requireNonNull(runnable, "runnable must not be null");
+		if (maxPending == Integer.MAX_VALUE || (admissionWaiters.isEmpty() && tryAdmit())) {
+			try {
+				if (maxPending == Integer.MAX_VALUE) {
+					push(runnable);
+				}
+				else {
+					pushAdmitted(runnable);
+				}
+			}
+			catch (RejectedExecutionException ex) {
+				return FutureUtil.exception(ex);
+			}
+			return CompletableFuture.completedFuture(null);
+		}
+		Admission admission = new Admission(runnable);
+		// counted until pushed, so close() waits also for the waiter already taken from the queue by release():
+		WAITING_ADMISSIONS_UPDATER.incrementAndGet(this);
+		admissionWaiters.add(admission);
+		// Capacity might have been released before the admission was added, admit the waiters for free slots:
+		while (tryAdmit()) {
+			release();
+			if (admissionWaiters.isEmpty()) {
+				break;
+			}
+		}
+		return admission;
+	}
+
 	@Override
 	protected void execute0(Runnable runnable)
+	{
+		Objects.requireNonNull(runnable, "runnable must not be null");
+		if (maxPending == Integer.MAX_VALUE) {
+			push(runnable);
+			return;
+		}
+		switch (overflowPolicy) {
+		case BLOCK:
+			admitBlocking();
+			break;
+
+		case REJECT:
+			if (!admissionWaiters.isEmpty() || !tryAdmit()) {
+				throw new RejectedExecutionException("Queue full, max pending: "+maxPending);
+			}
+			break;
+
+		case ASYNC:
+			CompletableFuture<Void> admission = executeAsync(runnable);
+			if (admission.isCompletedExceptionally()) {
+				FutureUtil.sneakyGetNow(admission, null);
+			}
+			return;
+
+		default:
+			throw new IllegalStateException("Unexpected overflowPolicy: "+overflowPolicy);
+		}
+		pushAdmitted(runnable);
+	}
+
+	private boolean tryAdmit()
+	{
+		for (;;) {
+			int old = admitted;
+			if (old >= maxPending) {
+				return false;
+			}
+			if (ADMITTED_UPDATER.compareAndSet(this, old, old+1)) {
+				return true;
+			}
+		}
+	}
+
+	private void admitBlocking()
+	{
+		if (admissionWaiters.isEmpty() && tryAdmit()) {
+			return;
+		}
+		synchronized (admissionLock) {
+			++blockedCount;
+			try {
+				while (!tryAdmit()) {
+					admissionLock.wait();
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException(e);
+			}
+			finally {
+				--blockedCount;
+			}
+		}
+	}
+
+	private void pushAdmitted(Runnable runnable)
+	{
+		try {
+			push(runnable);
+		}
+		catch (Throwable ex) {
+			release();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Releases single admission slot, passing it to first asynchronous waiter or to blocked producers.
+	 */
+	private void release()
+	{
+		for (Admission waiter; (waiter = admissionWaiters.poll()) != null; ) {
+			try {
+				push(waiter.runnable);
+			}
+			catch (Throwable ex) {
+				WAITING_ADMISSIONS_UPDATER.decrementAndGet(this);
+				waiter.completeExceptionally(ex);
+				notifyBlocked();
+				continue;
+			}
+			WAITING_ADMISSIONS_UPDATER.decrementAndGet(this);
+			waiter.complete(null);
+			notifyBlocked();
+			return;
+		}
+		ADMITTED_UPDATER.decrementAndGet(this);
+		notifyBlocked();
+	}
+
+	private void notifyBlocked()
+	{
+		if (blockedCount != 0) {
+			synchronized (admissionLock) {
+				admissionLock.notifyAll();
+			}
+		}
+	}
+
+	private void push(Runnable runnable)
 	{
 		// All:
 		// Any update to locked state is protected by synchronized (lock) .
@@ -91,7 +330,6 @@ public class SequencingExecutor extends AbstractCloseableExecutor
 		// At the end, it compares the pending tasks and if new was added, it repeats the above steps.
 		// If no task was added, it will update pending to null and exits.
 		// If lock is set, it will notify any waiting threads (which should be only one running close() ).
-		Objects.requireNonNull(runnable, "runnable must not be null");
 		for (;;) {
 			Node next = pending;
 			if (next == null) {
@@ -137,37 +375,56 @@ public class SequencingExecutor extends AbstractCloseableExecutor
 		synchronized (lock) {
 		}
 		try {
-			Node end = null;
+			// Resume the state of previous drain if it yielded the thread:
+			Node first = resumeFirst;
+			Node end = first != null ? resumeEnd : null;
+			Node newEnd = resumeNewEnd;
+			resumeFirst = null;
+			int tasksBudget = drainMaxTasks;
+			long timeStart = drainMaxNanos != Long.MAX_VALUE ? System.nanoTime() : 0;
 			for (;;) {
-				Node newEnd = pending;
-				Node first = newEnd;
-				Node next = first.next;
-				if (first == lock) {
-					first = next;
-					if (first == end) {
-						synchronized (lock) {
-							lock.closed |= 2;
-							lock.notify();
-							break;
+				if (first == null) {
+					newEnd = pending;
+					first = newEnd;
+					Node next = first.next;
+					if (first == lock) {
+						first = next;
+						if (first == end) {
+							synchronized (lock) {
+								lock.closed |= 2;
+								lock.notify();
+								break;
+							}
 						}
+						next = first.next;
+					}
+					first.next = null;
+					for (; next != end; ) {
+						Node nextNext = next.next;
+						next.next = first;
+						first = next;
+						next = nextNext;
 					}
-					next = first.next;
-				}
-				first.next = null;
-				for (; next != end; ) {
-					Node nextNext = next.next;
-					next.next = first;
-					first = next;
-					next = nextNext;
 				}
 
 				while (first != null) {
+					if (--tasksBudget < 0 ||
+						(drainMaxNanos != Long.MAX_VALUE && System.nanoTime()-timeStart >= drainMaxNanos)) {
+						if (yieldDrain(end, newEnd, first)) {
+							return;
+						}
+						tasksBudget = drainMaxTasks;
+						timeStart = drainMaxNanos != Long.MAX_VALUE ? System.nanoTime() : 0;
+					}
 					try {
 						first.task.run();
 					}
 					catch (Throwable ex) {
 						// ignore failure in runnable, should be reported by Future inside instead
 					}
+					if (maxPending != Integer.MAX_VALUE) {
+						release();
+					}
 					first = first.next;
 				}
 
@@ -189,9 +446,45 @@ public class SequencingExecutor extends AbstractCloseableExecutor
 		}
 	}
 
+	/**
+	 * Saves the drain state and resubmits the drain to underlying executor, so other tasks sharing the executor
+	 * can run.
+	 *
+	 * @return
+	 * 	true if resubmitted, false if the executor rejected and the current drain should continue.
+	 */
+	private boolean yieldDrain(Node end, Node newEnd, Node first)
+	{
+		resumeEnd = end;
+		resumeNewEnd = newEnd;
+		resumeFirst = first;
+		try {
+			executor.execute(this::executePending);
+			return true;
+		}
+		catch (Throwable ex) {
+			resumeFirst = null;
+			return false;
+		}
+	}
+
 	@Override
 	public void close()
 	{
+		if (maxPending != Integer.MAX_VALUE) {
+			// let the tasks waiting for admission enter the queue first:
+			synchronized (admissionLock) {
+				++blockedCount;
+				try {
+					while (waitingAdmissions != 0) {
+						FutureUtil.waitUninterruptiblyKeepInterrupt(admissionLock);
+					}
+				}
+				finally {
+					--blockedCount;
+				}
+			}
+		}
 		synchronized (lock) {
 			if ((lock.closed&4) == 0) {
 				lock.closed |= 4;
@@ -218,6 +511,25 @@ public class SequencingExecutor extends AbstractCloseableExecutor
 		}
 	}
 
+	/**
+	 * Policy applied when number of pending tasks reaches the limit.
+	 */
+	public enum OverflowPolicy
+	{
+		/** Blocks the caller until the task is admitted. */
+		BLOCK,
+		/** Rejects the task with {@link RejectedExecutionException}. */
+		REJECT,
+		/** Queues the task for admission without blocking the caller, see {@link #executeAsync(Runnable)}. */
+		ASYNC,
+	}
+
+	@AllArgsConstructor
+	private static class Admission extends CompletableFuture<Void>
+	{
+		final Runnable runnable;
+	}
+
 	@AllArgsConstructor
 	private static class Node
 	{
@@ -241,6 +553,36 @@ public class SequencingExecutor extends AbstractCloseableExecutor
 
 	private final CloseableExecutor executor;
 
+	private final int maxPending;
+
+	private final OverflowPolicy overflowPolicy;
+
+	/** Max number of tasks executed in single drain before yielding the thread. */
+	private final int drainMaxTasks;
+
+	/** Max time in ns spent in single drain before yielding the thread. */
+	private final long drainMaxNanos;
+
+	/** Drain state saved when yielding: the remaining tasks and the boundaries of current and previous chain. */
+	private Node resumeFirst;
+
+	private Node resumeNewEnd;
+
+	private Node resumeEnd;
+
+	/** Number of admitted tasks, pending or running.  Maintained only if maxPending is limited. */
+	private volatile int admitted = 0;
+
+	/** Number of producers blocked in {@link #admitBlocking()} or close() waiting for admissions. */
+	private volatile int blockedCount = 0;
+
+	private final Object admissionLock = new Object();
+
+	private final ConcurrentLinkedQueue<Admission> admissionWaiters = new ConcurrentLinkedQueue<>();
+
+	/** Number of asynchronous admissions not yet pushed into queue, including the ones being pushed by release(). */
+	private volatile int waitingAdmissions = 0;
+
 	/** List of pending tasks in opposite order.  null means the executor is not running now. */
 	private volatile Node pending = null;
 
@@ -248,4 +590,10 @@ public class SequencingExecutor extends AbstractCloseableExecutor
 
 	private static final AtomicReferenceFieldUpdater<SequencingExecutor, Node> PENDING_UPDATER =
 		AtomicReferenceFieldUpdater.newUpdater(SequencingExecutor.class, Node.class, "pending");
+
+	private static final AtomicIntegerFieldUpdater<SequencingExecutor> ADMITTED_UPDATER =
+		AtomicIntegerFieldUpdater.newUpdater(SequencingExecutor.class, "admitted");
+
+	private static final AtomicIntegerFieldUpdater<SequencingExecutor> WAITING_ADMISSIONS_UPDATER =
+		AtomicIntegerFieldUpdater.newUpdater(SequencingExecutor.class, "waitingAdmissions");
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015-2022 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/dryuf/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dryuf.base.concurrent.executor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * {@link CloseableExecutor} running each task in new virtual thread.  The implementation waits for current executions
+ * upon {@link #close()} .
+ *
+ * Virtual threads are available since Java 21, the class is looked up dynamically so the library still runs on older
+ * versions.  Use {@link #isSupported()} to check the availability, the constructor throws
+ * {@link UnsupportedOperationException} if not supported.
+ *
+ * The executor is suitable for tasks blocking on I/O, it can be used directly or as underlying executor of
+ * {@link SequencingExecutor}, {@link ResultSequencingExecutor} or {@link SingleWorkExecutor}.
+ *
+ * <pre>
+ *         try (SequencingExecutor executor = new SequencingExecutor(new VirtualThreadExecutor())) {
+ *                 executor.execute(() -> writeBlocking(1));
+ *                 executor.execute(() -> writeBlocking(2));
+ *         }
+ *         // at this point, both writes are executed and finished, underlying virtual thread executor is closed
+ * </pre>
+ */
+public class VirtualThreadExecutor extends ClosingExecutor
+{
+	private static final MethodHandle NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = lookupFactory();
+
+	/**
+	 * Checks whether the virtual threads are supported by current JVM.
+	 *
+	 * @return
+	 * 	true if virtual threads are supported.
+	 */
+	public static boolean isSupported()
+	{
+		return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+	}
+
+	/**
+	 * Constructs the executor.
+	 *
+	 * @throws UnsupportedOperationException
+	 * 	if virtual threads are not supported by JVM
+	 */
+	public VirtualThreadExecutor()
+	{
+		this(null);
+	}
+
+	/**
+	 * Constructs the executor with associated resource.
+	 *
+	 * @param resource
+	 * 	associated resource, to be closed after executor is closed.
+	 *
+	 * @throws UnsupportedOperationException
+	 * 	if virtual threads are not supported by JVM
+	 */
+	public VirtualThreadExecutor(AutoCloseable resource)
+	{
+		super(createVirtualThreadExecutor(), resource);
+	}
+
+	private static ExecutorService createVirtualThreadExecutor()
+	{
+		if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR == null) {
+			throw new UnsupportedOperationException("Virtual threads not supported, requires Java 21+: "+
+				System.getProperty("java.version"));
+		}
+		try {
+			return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke();
+		}
+		catch (UnsupportedOperationException ex) {
+			throw ex;
+		}
+		catch (Throwable ex) {
+			throw new UnsupportedOperationException("Failed to create virtual thread executor", ex);
+		}
+	}
+
+	private static MethodHandle lookupFactory()
+	{
+		// Java 19 and 20 provide virtual threads as preview only:
+		String specification = System.getProperty("java.specification.version", "1.8");
+		if (specification.startsWith("1.") || Integer.parseInt(specification.replaceFirst("\\..*", "")) < 21) {
+			return null;
+		}
+		try {
+			return MethodHandles.publicLookup().findStatic(
+				Executors.class,
+				"newVirtualThreadPerTaskExecutor",
+				MethodType.methodType(ExecutorService.class)
+			);
+		}
+		catch (NoSuchMethodException|IllegalAccessException ex) {
+			return null;
+		}
+	}
+}
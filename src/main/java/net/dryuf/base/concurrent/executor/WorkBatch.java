@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015-2022 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/dryuf/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dryuf.base.concurrent.executor;
+
+import java.util.List;
+
+
+/**
+ * Batch of work items passed to processor, completed by index.
+ *
+ * The instance is valid only during the processor call, the implementation may reuse it for next batches.
+ *
+ * @param <T>
+ *	work item
+ * @param <R>
+ *      result
+ */
+public interface WorkBatch<T, R>
+{
+	/**
+	 * Gets number of items in the batch.
+	 *
+	 * @return
+	 * 	number of items.
+	 */
+	int size();
+
+	/**
+	 * Gets the item.
+	 *
+	 * @param index
+	 * 	index of item
+	 *
+	 * @return
+	 * 	the item at index.
+	 */
+	T get(int index);
+
+	/**
+	 * Gets read-only list view of the items.
+	 *
+	 * @return
+	 * 	list of items, valid only during the processor call.
+	 */
+	List<T> asList();
+
+	/**
+	 * Completes the item with result.
+	 *
+	 * @param index
+	 * 	index of item
+	 * @param result
+	 * 	result of the item
+	 */
+	void complete(int index, R result);
+
+	/**
+	 * Fails the item with exception.
+	 *
+	 * @param index
+	 * 	index of item
+	 * @param ex
+	 * 	exception to fail the item with
+	 */
+	void fail(int index, Throwable ex);
+}
@@ -0,0 +1,610 @@
+/*
+ * Copyright 2015-2022 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/dryuf/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dryuf.base.concurrent.executor;
+
+import net.dryuf.base.function.ThrowingFunction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+
+/**
+ * {@link WorkExecutor} passing the work items through chain of batch processing stages.
+ *
+ * Each stage has its own bounded queue and batch size, takes up to batch size items from its queue, processes them at
+ * once and hands the results over to next stage.  The stages run in parallel on the underlying executor, each stage
+ * processes its batches sequentially, so the order of items is kept.  When the queue of next stage is full, the stage
+ * stops taking new items until there is space, so the backpressure propagates up to {@link #submit(Object)}, which
+ * blocks once the first queue is full.  The stage does not block the executor thread while waiting.
+ *
+ * The item travels through the stages in single carrier, which is also the result future, so no future is allocated
+ * per stage.  The failure of stage processor fails the items of its batch.  Each stage exposes its metrics via
+ * {@link #getStageMetrics()}.
+ *
+ * <pre>
+ *         try (WorkPipeline&lt;String, Long&gt; pipeline = WorkPipeline.&lt;String&gt;builder(delegateExecutor)
+ *                 .stage("parse", 100, 1000, this::parse)
+ *                 .stage("enrich", 50, 1000, this::enrich)
+ *                 .stage("persist", 500, 1000, this::persist)
+ *                 .build()) {
+ *         	CompletableFuture&lt;Long&gt; id = pipeline.submit(line);
+ *         }
+ *         // at this point, all items passed all stages (successfully or not), underlying executor closed
+ * </pre>
+ *
+ * @param <I>
+ *	input work item
+ * @param <O>
+ *      result
+ */
+public class WorkPipeline<I, O> implements WorkExecutor<I, O>
+{
+	private final CloseableExecutor executor;
+
+	private final Stage<?, ?> first;
+
+	private final List<StageMetrics> stageMetrics;
+
+	/** Number of items in the pipeline.  Or-ed by Integer.MIN_VALUE when closed. */
+	private volatile int pending = 0;
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<WorkPipeline> PENDING_UPDATER =
+		AtomicIntegerFieldUpdater.newUpdater(WorkPipeline.class, "pending");
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<Stage> STAGE_RUNNING_UPDATER =
+		AtomicIntegerFieldUpdater.newUpdater(Stage.class, "running");
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<Stage> STAGE_STALLED_UPDATER =
+		AtomicIntegerFieldUpdater.newUpdater(Stage.class, "stalled");
+
+	/**
+	 * Creates new pipeline builder.
+	 *
+	 * @param executor
+	 * 	underlying executor, running all the stages, closed upon close
+	 *
+	 * @return
+	 * 	pipeline builder
+	 *
+	 * @param <I>
+	 *	input work item
+	 */
+	public static <I> Builder<I, I> builder(CloseableExecutor executor)
+	{
+		return new Builder<>(executor);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private WorkPipeline(CloseableExecutor executor, List<Builder.StageDefinition> definitions)
+	{
+		if (definitions.isEmpty()) {
+			throw new IllegalArgumentException("No stages defined");
+		}
+		this.executor = executor;
+		List<StageMetrics> stageMetrics = new ArrayList<>(definitions.size());
+		Stage previous = null;
+		Stage first = null;
+		for (Builder.StageDefinition definition: definitions) {
+			Stage stage = new Stage(this, definition.name, definition.batchSize, definition.queueCapacity, definition.processor, previous);
+			if (previous == null) {
+				first = stage;
+			}
+			else {
+				previous.next = stage;
+			}
+			stageMetrics.add(stage);
+			previous = stage;
+		}
+		this.first = first;
+		this.stageMetrics = Collections.unmodifiableList(stageMetrics);
+	}
+
+	/**
+	 * Submits the work item into first stage, blocking if its queue is full.
+	 *
+	 * If interrupted, the method still waits and sets interrupted flag on this thread.
+	 *
+	 * @param work
+	 * 	work item
+	 *
+	 * @return
+	 * 	future completed with result of last stage.
+	 *
+	 * @throws RejectedExecutionException
+	 * 	if the pipeline is closed
+	 */
+	@Override
+	public CompletableFuture<O> submit(I work)
+	{
+		for (;;) {
+			int old = pending;
+			if ((old&Integer.MIN_VALUE) != 0) {
+				throw new RejectedExecutionException("Executor closed");
+			}
+			if (PENDING_UPDATER.compareAndSet(this, old, old+1)) {
+				break;
+			}
+		}
+		Slot<O> slot = new Slot<>(work);
+		boolean interrupted = false;
+		for (;;) {
+			try {
+				first.queue.put(slot);
+				break;
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		first.schedule();
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return slot;
+	}
+
+	/**
+	 * Gets metrics of stages, in order of pipeline.
+	 *
+	 * @return
+	 * 	list of stage metrics.
+	 */
+	public List<StageMetrics> getStageMetrics()
+	{
+		return stageMetrics;
+	}
+
+	/**
+	 * Closes the pipeline, waiting for all submitted items to pass all stages and closing underlying executor.
+	 *
+	 * If interrupted, the method sets interrupted flag on this thread.
+	 */
+	@Override
+	public void close()
+	{
+		boolean interrupted = false;
+		int old = PENDING_UPDATER.getAndUpdate(this, v -> v|Integer.MIN_VALUE);
+		if ((old&Integer.MIN_VALUE) != 0) {
+			return;
+		}
+		synchronized (this) {
+			while ((pending&Integer.MAX_VALUE) != 0) {
+				try {
+					wait();
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		executor.close();
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void release(int count)
+	{
+		int old = PENDING_UPDATER.getAndAdd(this, -count);
+		if (old == (Integer.MIN_VALUE|count)) {
+			synchronized (this) {
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Metrics of single stage.
+	 */
+	public interface StageMetrics
+	{
+		/**
+		 * Gets the name of stage.
+		 *
+		 * @return
+		 * 	name of stage.
+		 */
+		String getName();
+
+		/**
+		 * Gets number of items waiting in the stage queue.
+		 *
+		 * @return
+		 * 	current queue size.
+		 */
+		int getQueueSize();
+
+		/**
+		 * Gets number of items processed by stage.
+		 *
+		 * @return
+		 * 	total number of processed items, including failed ones.
+		 */
+		long getProcessedCount();
+
+		/**
+		 * Gets number of batches processed by stage.
+		 *
+		 * @return
+		 * 	total number of processed batches.
+		 */
+		long getBatchCount();
+
+		/**
+		 * Gets average latency of batch processing.
+		 *
+		 * @return
+		 * 	exponential moving average of batch processing latency, in nanoseconds.
+		 */
+		long getAverageLatencyNs();
+
+		/**
+		 * Gets average throughput of stage processor.
+		 *
+		 * @return
+		 * 	exponential moving average of items processed per second by single batch processing.
+		 */
+		double getThroughput();
+	}
+
+	/**
+	 * Builder of the pipeline, adding the stages in order.
+	 *
+	 * @param <I>
+	 *	input work item
+	 * @param <C>
+	 *      output of current last stage
+	 */
+	public static class Builder<I, C>
+	{
+		private final CloseableExecutor executor;
+
+		private final List<StageDefinition> stages = new ArrayList<>();
+
+		private Builder(CloseableExecutor executor)
+		{
+			this.executor = Objects.requireNonNull(executor, "executor");
+		}
+
+		/**
+		 * Adds next stage.
+		 *
+		 * @param name
+		 * 	name of stage, for metrics
+		 * @param batchSize
+		 * 	max number of items passed at once to processor
+		 * @param queueCapacity
+		 * 	capacity of stage queue
+		 * @param processor
+		 * 	stage processor, returning the results in the same order as input items
+		 *
+		 * @return
+		 * 	this builder.
+		 *
+		 * @param <N>
+		 *      output of the stage
+		 */
+		@SuppressWarnings("unchecked")
+		public <N> Builder<I, N> stage(String name, int batchSize, int queueCapacity, ThrowingFunction<List<C>, List<N>, Exception> processor)
+		{
+			if (batchSize <= 0) {
+				throw new IllegalArgumentException("batchSize must be positive: "+batchSize);
+			}
+			if (queueCapacity <= 0) {
+				throw new IllegalArgumentException("queueCapacity must be positive: "+queueCapacity);
+			}
+			stages.add(new StageDefinition(name, batchSize, queueCapacity, Objects.requireNonNull(processor, "processor")));
+			return (Builder<I, N>) this;
+		}
+
+		/**
+		 * Builds the pipeline.
+		 *
+		 * @return
+		 * 	pipeline consisting of added stages.
+		 */
+		public WorkPipeline<I, C> build()
+		{
+			return new WorkPipeline<>(executor, stages);
+		}
+
+		private static class StageDefinition
+		{
+			final String name;
+
+			final int batchSize;
+
+			final int queueCapacity;
+
+			@SuppressWarnings("rawtypes")
+			final ThrowingFunction processor;
+
+			@SuppressWarnings("rawtypes")
+			StageDefinition(String name, int batchSize, int queueCapacity, ThrowingFunction processor)
+			{
+				this.name = name;
+				this.batchSize = batchSize;
+				this.queueCapacity = queueCapacity;
+				this.processor = processor;
+			}
+		}
+	}
+
+	/**
+	 * Item carrier, passed through all stages and completed with the final result.
+	 */
+	private static class Slot<O> extends CompletableFuture<O>
+	{
+		/** Current value, the input of next stage. */
+		Object value;
+
+		Slot(Object value)
+		{
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Single stage, processing its batches sequentially.
+	 *
+	 * The stage is scheduled once it has items in queue and keeps running until the queue is empty.  If next stage
+	 * queue is full, the stage is stalled, keeping the running flag and the results not handed over yet, and is
+	 * resumed by next stage once it takes items from its queue.
+	 */
+	private static class Stage<A, B> implements Runnable, StageMetrics
+	{
+		/** Weight of new sample in averages. */
+		private static final double AVERAGE_WEIGHT = 0.2;
+
+		final WorkPipeline<?, ?> owner;
+
+		final String name;
+
+		final int batchSize;
+
+		final ArrayBlockingQueue<Slot<?>> queue;
+
+		final ThrowingFunction<List<A>, List<B>, Exception> processor;
+
+		final Stage<?, A> previous;
+
+		Stage<B, ?> next;
+
+		/** Indicates the stage is scheduled, running or stalled. */
+		volatile int running;
+
+		/** Indicates the stage waits for space in next stage queue. */
+		volatile int stalled;
+
+		/** Slots of current batch, reused across batches. */
+		private final ArrayList<Slot<?>> slots;
+
+		/** Values of current batch, reused across batches. */
+		private final ArrayList<A> values;
+
+		/** Index of first slot not handed over to next stage yet. */
+		private int handOverIndex;
+
+		private volatile long processedCount;
+
+		private volatile long batchCount;
+
+		private volatile long averageLatencyNs;
+
+		private volatile double throughput;
+
+		Stage(WorkPipeline<?, ?> owner, String name, int batchSize, int queueCapacity, ThrowingFunction<List<A>, List<B>, Exception> processor, Stage<?, A> previous)
+		{
+			this.owner = owner;
+			this.name = name;
+			this.batchSize = batchSize;
+			this.queue = new ArrayBlockingQueue<>(queueCapacity);
+			this.processor = processor;
+			this.previous = previous;
+			this.slots = new ArrayList<>(batchSize);
+			this.values = new ArrayList<>(batchSize);
+		}
+
+		@Override
+		public String getName()
+		{
+			return name;
+		}
+
+		@Override
+		public int getQueueSize()
+		{
+			return queue.size();
+		}
+
+		@Override
+		public long getProcessedCount()
+		{
+			return processedCount;
+		}
+
+		@Override
+		public long getBatchCount()
+		{
+			return batchCount;
+		}
+
+		@Override
+		public long getAverageLatencyNs()
+		{
+			return averageLatencyNs;
+		}
+
+		@Override
+		public double getThroughput()
+		{
+			return throughput;
+		}
+
+		void schedule()
+		{
+			if (running == 0 && STAGE_RUNNING_UPDATER.compareAndSet(this, 0, 1)) {
+				execute();
+			}
+		}
+
+		void resume()
+		{
+			if (stalled != 0 && STAGE_STALLED_UPDATER.compareAndSet(this, 1, 0)) {
+				execute();
+			}
+		}
+
+		private void execute()
+		{
+			try {
+				owner.executor.execute(this);
+			}
+			catch (Throwable ex) {
+				// underlying executor rejected, run it here as nobody else would pick the items up:
+				run();
+			}
+		}
+
+		@Override
+		public void run()
+		{
+			for (;;) {
+				if (!handOver()) {
+					return;
+				}
+				queue.drainTo(slots, batchSize);
+				if (slots.isEmpty()) {
+					running = 0;
+					if (queue.isEmpty() || !STAGE_RUNNING_UPDATER.compareAndSet(this, 0, 1)) {
+						return;
+					}
+					continue;
+				}
+				if (previous != null) {
+					previous.resume();
+				}
+				process();
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private void process()
+		{
+			int size = 0;
+			for (int i = 0, e = slots.size(); i < e; ++i) {
+				Slot<?> slot = slots.get(i);
+				if (slot.isDone()) {
+					// cancelled by caller, do not process further:
+					owner.release(1);
+					continue;
+				}
+				slots.set(size++, slot);
+				values.add((A) slot.value);
+			}
+			slots.subList(size, slots.size()).clear();
+			if (size == 0) {
+				return;
+			}
+			long start = System.nanoTime();
+			try {
+				List<B> results = processor.apply(values);
+				if (results.size() != size) {
+					throw new IllegalStateException("Stage "+name+" returned "+results.size()+" results for "+size+" items");
+				}
+				for (int i = 0; i < size; ++i) {
+					slots.get(i).value = results.get(i);
+				}
+			}
+			catch (Throwable ex) {
+				for (Slot<?> slot: slots) {
+					slot.completeExceptionally(ex);
+				}
+				owner.release(size);
+				slots.clear();
+			}
+			finally {
+				record(size, System.nanoTime()-start);
+				values.clear();
+			}
+		}
+
+		/**
+		 * Hands the processed slots over to next stage, or completes them if this is the last stage.
+		 *
+		 * @return
+		 * 	true if all slots were handed over, false if the stage got stalled.
+		 */
+		@SuppressWarnings("unchecked")
+		private boolean handOver()
+		{
+			if (next == null) {
+				if (!slots.isEmpty()) {
+					for (Slot<?> slot: slots) {
+						((Slot<Object>) slot).complete(slot.value);
+					}
+					owner.release(slots.size());
+					slots.clear();
+				}
+				return true;
+			}
+			while (handOverIndex < slots.size()) {
+				if (next.queue.offer(slots.get(handOverIndex))) {
+					++handOverIndex;
+					continue;
+				}
+				next.schedule();
+				stalled = 1;
+				// next stage might have taken items before it could see the stalled flag:
+				if (next.queue.remainingCapacity() > 0 && STAGE_STALLED_UPDATER.compareAndSet(this, 1, 0)) {
+					continue;
+				}
+				return false;
+			}
+			if (handOverIndex != 0) {
+				next.schedule();
+			}
+			handOverIndex = 0;
+			slots.clear();
+			return true;
+		}
+
+		private void record(int size, long latencyNs)
+		{
+			double itemsPerSecond = size*1_000_000_000.0/Math.max(latencyNs, 1);
+			if (averageLatencyNs == 0) {
+				averageLatencyNs = latencyNs;
+				throughput = itemsPerSecond;
+			}
+			else {
+				averageLatencyNs = (long) (averageLatencyNs*(1-AVERAGE_WEIGHT)+latencyNs*AVERAGE_WEIGHT);
+				throughput = throughput*(1-AVERAGE_WEIGHT)+itemsPerSecond*AVERAGE_WEIGHT;
+			}
+			processedCount = processedCount+size;
+			batchCount = batchCount+1;
+		}
+	}
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2015-2022 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/dryuf/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dryuf.base.concurrent.queue;
+
+import net.dryuf.base.concurrent.executor.CommonPoolExecutor;
+
+import java.io.Closeable;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Bounded queue which guarantees reading by single consumer, array based variant of {@link SingleConsumerQueue}.
+ *
+ * The producers claim the slot by single CAS on tail counter and store the item into preallocated ring, so no node is
+ * allocated per item and the consumer reads the items sequentially from the array.  The head and tail counters are
+ * padded to separate cache lines, so the consumer does not contend with producers.  The consumer is started the same
+ * way as with {@link SingleConsumerQueue}, once the item is added and no consumer is running.
+ *
+ * <pre>{@code
+ *
+ * 	SingleConsumerRingQueue<Runnable> queue = new SingleConsumerRingQueue<>(1024, () -> CompletableFuture.runAsync(() -> this::consumer));
+ *
+ *      ...
+ *      if (!queue.offer(this::myTask)) {
+ *              // queue full
+ *      }
+ *      ...
+ *
+ *      private void consumer()
+ *      {
+ *              try (SingleConsumerRingQueue<Runnable>.Consumer consumer = queue.consume()) {
+ *             	        for (Runnable task; (task = consumer.next()) != null; ) {
+ *             	    		task.run();
+ *             	    	}
+ *             }
+ *      }
+ * }</pre>
+ *
+ * @implNote Implementation is lock-free, the enqueue is allocation-free.
+ *
+ * @author
+ * Copyright 2015-2022 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/dryuf/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ */
+public class SingleConsumerRingQueue<T>
+{
+	/** Distance between counters, in longs, covering two cache lines because of adjacent line prefetch. */
+	private static final int PAD = 16;
+
+	/** Index of tail counter, the next slot to be claimed by producer. */
+	private static final int TAIL = PAD;
+
+	/** Index of cached limit of tail, avoiding reading the head by producers on each add. */
+	private static final int PRODUCER_LIMIT = PAD+1;
+
+	/** Index of head counter, the next slot to be read by consumer. */
+	private static final int HEAD = 2*PAD;
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<SingleConsumerRingQueue> CONSUMER_STATE_UPDATER =
+		AtomicIntegerFieldUpdater.newUpdater(SingleConsumerRingQueue.class, "consumerState");
+
+	/** Function to be called to initiate the consumer. */
+	private final java.util.function.Consumer<SingleConsumerRingQueue<T>> consumerCallback;
+
+	private final Executor runExecutor;
+
+	private final AtomicReferenceArray<T> buffer;
+
+	private final int mask;
+
+	/** Padded head and tail counters. */
+	private final AtomicLongArray counters = new AtomicLongArray(3*PAD);
+
+	/** Indicates the consumer was started and has not closed yet. */
+	private volatile int consumerState = 0;
+
+	/**
+	 * Constructs new {@link SingleConsumerRingQueue}.
+	 *
+	 * @param capacity
+	 * 	max number of items in queue, rounded up to power of two
+	 * @param consumerCallback
+	 * 	function to call when item is pending and no consumer is running.  Note it is run directly when
+	 * 	closing the consumer, therefore it is supposed to schedule consumer asynchronously to avoid recursion.  It
+	 * 	can be synchronous only when using {@link Consumer#nextOrClose()}.
+	 */
+	public SingleConsumerRingQueue(int capacity, Runnable consumerCallback)
+	{
+		this(capacity, consumerCallback, CommonPoolExecutor.getInstance());
+	}
+
+	/**
+	 * Constructs new {@link SingleConsumerRingQueue}.
+	 *
+	 * @param capacity
+	 * 	max number of items in queue, rounded up to power of two
+	 * @param consumerCallback
+	 * 	function to call when item is pending and no consumer is running.  Note it is run directly when
+	 * 	closing the consumer, therefore it is supposed to schedule consumer asynchronously to avoid recursion.  It
+	 * 	can be synchronous only when using {@link Consumer#nextOrClose()}.
+	 * @param runExecutor
+	 * 	the executor to run callback
+	 */
+	public SingleConsumerRingQueue(int capacity, Runnable consumerCallback, Executor runExecutor)
+	{
+		this(capacity, (this0) -> consumerCallback.run(), runExecutor);
+	}
+
+	/**
+	 * Constructs new {@link SingleConsumerRingQueue}.
+	 *
+	 * @param capacity
+	 * 	max number of items in queue, rounded up to power of two
+	 * @param consumerCallback
+	 * 	function to call when item is pending and no consumer is running.  Note it is run directly when
+	 * 	closing the consumer, therefore it is supposed to schedule consumer asynchronously to avoid recursion.  It
+	 * 	can be synchronous only when using {@link Consumer#nextOrClose()}.
+	 * @param runExecutor
+	 * 	the executor to run callback
+	 */
+	public SingleConsumerRingQueue(
+			int capacity,
+			java.util.function.Consumer<SingleConsumerRingQueue<T>> consumerCallback,
+			Executor runExecutor
+	)
+	{
+		if (capacity <= 0 || capacity > 1<<30) {
+			throw new IllegalArgumentException("capacity must be between 1 and 2^30: "+capacity);
+		}
+		int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity)<<1;
+		this.consumerCallback = consumerCallback;
+		this.runExecutor = runExecutor;
+		this.buffer = new AtomicReferenceArray<>(size);
+		this.mask = size-1;
+		this.counters.set(PRODUCER_LIMIT, size);
+	}
+
+	/**
+	 * Gets the capacity of queue.
+	 *
+	 * @return
+	 * 	max number of items in queue.
+	 */
+	public int getCapacity()
+	{
+		return mask+1;
+	}
+
+	/**
+	 * Consumes the pending item from queue.
+	 *
+	 * @return
+	 * 	queue reader
+	 */
+	public Consumer consume()
+	{
+		return new Consumer();
+	}
+
+	/**
+	 * Adds new item to queue.
+	 *
+	 * @param item
+	 * 	item to be added
+	 *
+	 * @throws IllegalStateException
+	 * 	if the queue is full
+	 */
+	public void add(T item)
+	{
+		if (!offer(item)) {
+			throw new IllegalStateException("Queue full, capacity: "+getCapacity());
+		}
+	}
+
+	/**
+	 * Adds new item to queue if there is space.
+	 *
+	 * @param item
+	 * 	item to be added
+	 *
+	 * @return
+	 * 	true if added, false if the queue is full.
+	 */
+	public boolean offer(T item)
+	{
+		Objects.requireNonNull(item, "item must not be null");
+		long tail;
+		for (;;) {
+			tail = counters.get(TAIL);
+			if (tail >= counters.get(PRODUCER_LIMIT)) {
+				long limit = counters.get(HEAD)+mask+1;
+				if (tail >= limit) {
+					return false;
+				}
+				counters.set(PRODUCER_LIMIT, limit);
+			}
+			if (counters.compareAndSet(TAIL, tail, tail+1)) {
+				break;
+			}
+		}
+		// volatile store, so either this producer sees the consumer closed or the consumer sees the item:
+		buffer.set((int) tail&mask, item);
+		if (consumerState == 0 && CONSUMER_STATE_UPDATER.compareAndSet(this, 0, 1)) {
+			CompletableFuture.runAsync(() -> consumerCallback.accept(this), runExecutor);
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether there are items not yet consumed, including the slots claimed but not yet written.
+	 */
+	private boolean hasPending()
+	{
+		return counters.get(HEAD) != counters.get(TAIL);
+	}
+
+	/**
+	 * Queue consumer.
+	 */
+	public class Consumer implements Closeable
+	{
+		private boolean closed = false;
+
+		/**
+		 * Reads next item from queue.
+		 *
+		 * @return
+		 * 	next item from queue.
+		 */
+		public T next()
+		{
+			if (closed) {
+				throw new IllegalStateException("Consumer closed");
+			}
+			long head = counters.get(HEAD);
+			int slot = (int) head&mask;
+			T item = buffer.get(slot);
+			if (item == null) {
+				if (head == counters.get(TAIL)) {
+					return null;
+				}
+				// the producer claimed the slot but has not written it yet, which is very short:
+				while ((item = buffer.get(slot)) == null) {
+					Thread.yield();
+				}
+			}
+			buffer.lazySet(slot, null);
+			counters.lazySet(HEAD, head+1);
+			return item;
+		}
+
+		/**
+		 * Returns next item or closes the consumer, so new consumer can start running.
+		 *
+		 * @return
+		 * 	next item or null of consumer was closed.
+		 */
+		public T nextOrClose()
+		{
+			for (;;) {
+				T next = next();
+				if (next == null) {
+					consumerState = 0;
+					if (hasPending() && CONSUMER_STATE_UPDATER.compareAndSet(SingleConsumerRingQueue.this, 0, 1)) {
+						continue;
+					}
+					closed = true;
+				}
+				return next;
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 *
+		 * Closes the reader and unregisters the consumer, so another consumer can start running.
+		 */
+		@Override
+		public void close()
+		{
+			if (!closed) {
+				closed = true;
+				consumerState = 0;
+				if (hasPending() && CONSUMER_STATE_UPDATER.compareAndSet(SingleConsumerRingQueue.this, 0, 1)) {
+					consumerCallback.accept(SingleConsumerRingQueue.this);
+				}
+			}
+		}
+	}
+}
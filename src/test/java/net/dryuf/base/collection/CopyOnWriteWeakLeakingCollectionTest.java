@@ -10,11 +10,16 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Level;
 import java.util.stream.Collectors;
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.testng.Assert.assertEquals;
 
 
@@ -82,6 +87,121 @@ public class CopyOnWriteWeakLeakingCollectionTest
 		verify(leakage, times(1)).run();
 	}
 
+	@Test(timeOut = 10_000L)
+	public void size_whenGarbageCollectedReferenceQueue_removed()
+	{
+		Runnable leakage = mock(Runnable.class);
+		Collection<Double> collection = new CopyOnWriteWeakLeakingCollection<>(leakage, true);
+
+		Double d0 = new Double(0.123456789);
+		Double d1 = new Double(1.123456789);
+		Double d2 = new Double(2.123456789);
+		Double d3 = new Double(3.123456789);
+		collection.add(d0);
+		collection.add(d1);
+		collection.add(d2);
+		collection.add(d3);
+
+		d1 = null;
+		d3 = null;
+		for (;;) {
+			System.gc();
+			if (collection.size() == 2) {
+				break;
+			}
+		}
+		assertEquals(new ArrayList<>(collection), Arrays.asList(d0, d2));
+		verify(leakage, times(2)).run();
+	}
+
+	@Test(timeOut = 10_000L)
+	public void iterate_whenGarbageCollectedReferenceQueue_skipped()
+	{
+		Runnable leakage = mock(Runnable.class);
+		Collection<Double> collection = new CopyOnWriteWeakLeakingCollection<>(leakage, true);
+
+		Double d0 = new Double(0.123456789);
+		Double d1 = new Double(1.123456789);
+		collection.add(d0);
+		collection.add(d1);
+
+		d1 = null;
+		for (;;) {
+			System.gc();
+			List<Double> copy = collection.stream().collect(Collectors.toList());
+			if (copy.size() == 1) {
+				assertEquals(copy, Arrays.asList(d0));
+				break;
+			}
+		}
+		for (;;) {
+			System.gc();
+			if (collection.size() == 1) {
+				break;
+			}
+		}
+		verify(leakage, times(1)).run();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test(timeOut = 10_000L)
+	public void add_withContext_contextNotified()
+	{
+		Consumer<Object> leakage = mock(Consumer.class);
+		CopyOnWriteWeakLeakingCollection<Double> collection = new CopyOnWriteWeakLeakingCollection<>(leakage, 0, true);
+
+		Double d0 = new Double(0.123456789);
+		Double d1 = new Double(1.123456789);
+		collection.add(d0, "first");
+		collection.add(d1, "second");
+
+		d1 = null;
+		for (;;) {
+			System.gc();
+			if (collection.size() == 1) {
+				break;
+			}
+		}
+		verify(leakage, times(1)).accept(eq("second"));
+	}
+
+	@Test(timeOut = 10_000L)
+	public void add_sampled_allocationNotified()
+	{
+		List<Object> contexts = new ArrayList<>();
+		Collection<Double> collection = new CopyOnWriteWeakLeakingCollection<>(contexts::add, 1, false);
+
+		Double d = new Double(5.123456789);
+		collection.add(d);
+
+		d = null;
+		for (;;) {
+			System.gc();
+			ArrayList<Double> copy = new ArrayList<>(collection);
+			if (copy.isEmpty()) {
+				break;
+			}
+		}
+		assertEquals(contexts.size(), 1);
+		assertThat(contexts.get(0), instanceOf(Throwable.class));
+	}
+
+	@Test(timeOut = 10_000L)
+	public void remove_whenPresent_removed()
+	{
+		Collection<Double> collection = new CopyOnWriteWeakLeakingCollection<>(null);
+
+		Double d0 = new Double(0.123456789);
+		Double d1 = new Double(1.123456789);
+		Double d2 = new Double(2.123456789);
+		collection.add(d0);
+		collection.add(d1);
+		collection.add(d2);
+
+		collection.remove(d1);
+		assertEquals(new ArrayList<>(collection), Arrays.asList(d0, d2));
+	}
+
 	// Do not remove, serves as javadoc example:
 
 	private void example()
@@ -94,4 +214,15 @@ public class CopyOnWriteWeakLeakingCollectionTest
 	{
 		log.severe("Unreleased connection detected in: " + this);
 	}
+
+	private void allocationExample()
+	{
+		Collection<Connection> connections =
+			new CopyOnWriteWeakLeakingCollection<Connection>(this::leakContextDetector, 100, true);
+	}
+
+	private void leakContextDetector(Object context)
+	{
+		log.log(Level.SEVERE, "Unreleased connection detected in: " + this, (Throwable) context);
+	}
 }
@@ -0,0 +1,88 @@
+package net.dryuf.base.collection;
+
+import lombok.extern.java.Log;
+import org.testng.annotations.Test;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+
+@Log
+public class StripedCopyOnWriteWeakLeakingCollectionTest
+{
+	@Test(timeOut = 10_000L)
+	public void iterate_whenReferencing_provideAll()
+	{
+		Runnable leakage = mock(Runnable.class);
+		Collection<Integer> collection = new StripedCopyOnWriteWeakLeakingCollection<>(8, leakage);
+
+		List<Integer> items = IntStream.range(0, 1000).mapToObj(Integer::new).collect(Collectors.toList());
+		collection.addAll(items);
+
+		assertEquals(collection.size(), 1000);
+		assertEquals(new HashSet<>(collection), new HashSet<>(items));
+		verify(leakage, times(0)).run();
+	}
+
+	@Test(timeOut = 10_000L)
+	public void remove_whenPresent_removed()
+	{
+		Collection<Integer> collection = new StripedCopyOnWriteWeakLeakingCollection<>(4, (Runnable) null);
+
+		List<Integer> items = IntStream.range(0, 100).mapToObj(Integer::new).collect(Collectors.toList());
+		collection.addAll(items);
+
+		assertTrue(collection.remove(items.get(50)));
+		assertFalse(collection.remove(items.get(50)));
+		assertEquals(collection.size(), 99);
+		assertFalse(collection.contains(50));
+	}
+
+	@Test(timeOut = 10_000L)
+	public void size_whenGarbageCollected_removed()
+	{
+		Runnable leakage = mock(Runnable.class);
+		StripedCopyOnWriteWeakLeakingCollection<Double> collection = new StripedCopyOnWriteWeakLeakingCollection<>(
+			4,
+			() -> new CopyOnWriteWeakLeakingCollection<>(leakage, true)
+		);
+
+		List<Double> items = IntStream.range(0, 100).mapToObj(i -> new Double(i+0.5)).collect(Collectors.toList());
+		collection.addAll(items);
+
+		items.subList(0, 10).clear();
+		for (;;) {
+			System.gc();
+			if (collection.size() == 90) {
+				break;
+			}
+		}
+		assertEquals(new HashSet<>(collection), new HashSet<>(items));
+		verify(leakage, times(10)).run();
+	}
+
+	// Do not remove, serves as javadoc example:
+
+	private void example()
+	{
+		Collection<Connection> connections =
+			new StripedCopyOnWriteWeakLeakingCollection<Connection>(64, this::leakDetector);
+	}
+
+	private void leakDetector()
+	{
+		log.severe("Unreleased connection detected in: " + this);
+	}
+}
@@ -0,0 +1,59 @@
+package net.dryuf.base.concurrent.executor;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+
+public class AdaptiveBatchSizeTest
+{
+	@Test
+	public void record_fullWithinTarget_increased()
+	{
+		AdaptiveBatchSize batchSize = new AdaptiveBatchSize(10, 25, 100, TimeUnit.MILLISECONDS);
+		assertEquals(batchSize.getBatchSize(), 10);
+		batchSize.record(10, TimeUnit.MILLISECONDS.toNanos(10));
+		assertEquals(batchSize.getBatchSize(), 20);
+		batchSize.record(20, TimeUnit.MILLISECONDS.toNanos(10));
+		assertEquals(batchSize.getBatchSize(), 25);
+		batchSize.record(25, TimeUnit.MILLISECONDS.toNanos(10));
+		assertEquals(batchSize.getBatchSize(), 25);
+	}
+
+	@Test
+	public void record_partialWithinTarget_kept()
+	{
+		AdaptiveBatchSize batchSize = new AdaptiveBatchSize(10, 100, 100, TimeUnit.MILLISECONDS);
+		batchSize.record(5, TimeUnit.MILLISECONDS.toNanos(10));
+		assertEquals(batchSize.getBatchSize(), 10);
+	}
+
+	@Test
+	public void record_overTarget_halved()
+	{
+		AdaptiveBatchSize batchSize = new AdaptiveBatchSize(10, 100, 100, TimeUnit.MILLISECONDS);
+		for (int i = 0; i < 5; ++i) {
+			batchSize.record(batchSize.getBatchSize(), TimeUnit.MILLISECONDS.toNanos(10));
+		}
+		assertEquals(batchSize.getBatchSize(), 60);
+		batchSize.record(60, TimeUnit.MILLISECONDS.toNanos(200));
+		assertEquals(batchSize.getBatchSize(), 30);
+		batchSize.record(30, TimeUnit.MILLISECONDS.toNanos(200));
+		batchSize.record(15, TimeUnit.MILLISECONDS.toNanos(200));
+		assertEquals(batchSize.getBatchSize(), 10);
+	}
+
+	@Test
+	public void record_any_averagesUpdated()
+	{
+		AdaptiveBatchSize batchSize = new AdaptiveBatchSize(10, 100, 100, TimeUnit.MILLISECONDS);
+		batchSize.record(10, TimeUnit.MILLISECONDS.toNanos(10));
+		assertEquals(batchSize.getAverageLatencyNs(), TimeUnit.MILLISECONDS.toNanos(10));
+		assertEquals(batchSize.getThroughput(), 1000.0, 0.001);
+		batchSize.record(20, TimeUnit.MILLISECONDS.toNanos(20));
+		assertTrue(batchSize.getAverageLatencyNs() > TimeUnit.MILLISECONDS.toNanos(10));
+	}
+}
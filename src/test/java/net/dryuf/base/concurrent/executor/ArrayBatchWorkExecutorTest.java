@@ -0,0 +1,211 @@
+package net.dryuf.base.concurrent.executor;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+
+
+public class ArrayBatchWorkExecutorTest
+{
+	@Test(timeOut = 10_000L)
+	public void run_overload_successful() throws Exception
+	{
+		AtomicInteger maxBatch = new AtomicInteger();
+		AtomicInteger itemsCount = new AtomicInteger();
+		List<CompletableFuture<Long>> futures = new ArrayList<>();
+		try (ArrayBatchWorkExecutor<Long, Long> executor = new ArrayBatchWorkExecutor<>(
+			new ClosingExecutor(Executors.newFixedThreadPool(2)),
+			10,
+			batch -> {
+				maxBatch.accumulateAndGet(batch.size(), Math::max);
+				itemsCount.addAndGet(batch.size());
+				for (int i = 0; i < batch.size(); ++i) {
+					batch.complete(i, batch.get(i)*batch.get(i));
+				}
+			}
+		)) {
+			for (long i = 0; i < 100_000; ++i) {
+				futures.add(executor.submit(i));
+			}
+		}
+		Assert.assertEquals(itemsCount.get(), 100_000);
+		Assert.assertTrue(maxBatch.get() <= 10);
+		for (int i = 0; i < 100_000; ++i) {
+			Assert.assertEquals((long) futures.get(i).getNow(null), (long) i*i);
+		}
+	}
+
+	@Test(timeOut = 10_000L)
+	public void run_concurrentProducers_successful() throws Exception
+	{
+		AtomicInteger itemsCount = new AtomicInteger();
+		List<CompletableFuture<Integer>> futures = Collections.synchronizedList(new ArrayList<>());
+		try (ArrayBatchWorkExecutor<Integer, Integer> executor = new ArrayBatchWorkExecutor<>(
+			new ClosingExecutor(Executors.newFixedThreadPool(2)),
+			7,
+			batch -> {
+				itemsCount.addAndGet(batch.size());
+				for (int i = 0; i < batch.size(); ++i) {
+					batch.complete(i, -batch.get(i));
+				}
+			}
+		)) {
+			List<Thread> producers = new ArrayList<>();
+			for (int t = 0; t < 4; ++t) {
+				int base = t*10_000;
+				Thread producer = new Thread(() -> {
+					for (int i = 0; i < 10_000; ++i) {
+						futures.add(executor.submit(base+i).thenApply(v -> v+base));
+					}
+				});
+				producer.start();
+				producers.add(producer);
+			}
+			for (Thread producer: producers) {
+				producer.join();
+			}
+		}
+		Assert.assertEquals(itemsCount.get(), 40_000);
+		Assert.assertEquals(futures.size(), 40_000);
+		for (CompletableFuture<Integer> future: futures) {
+			Assert.assertTrue(future.getNow(null) <= 0);
+		}
+	}
+
+	@Test(timeOut = 10_000L)
+	public void run_sequential_chunkReused() throws Exception
+	{
+		Set<WorkBatch<Integer, Integer>> batches = Collections.newSetFromMap(new IdentityHashMap<>());
+		try (ArrayBatchWorkExecutor<Integer, Integer> executor = new ArrayBatchWorkExecutor<>(
+			new ClosingExecutor(Executors.newFixedThreadPool(1)),
+			10,
+			batch -> {
+				batches.add(batch);
+				Assert.assertEquals(batch.asList(), Collections.singletonList(batch.get(0)));
+				batch.complete(0, batch.get(0)+1);
+			}
+		)) {
+			for (int i = 0; i < 100; ++i) {
+				Assert.assertEquals((int) executor.submit(i).get(), i+1);
+			}
+		}
+		Assert.assertTrue(batches.size() <= 2, "Expected chunks reused: "+batches.size());
+	}
+
+	@Test(timeOut = 10_000L)
+	public void run_throwAfterComplete_completed() throws Exception
+	{
+		try (ArrayBatchWorkExecutor<Integer, Integer> executor = new ArrayBatchWorkExecutor<>(
+			new ClosingExecutor(Executors.newFixedThreadPool(1)),
+			10,
+			batch -> {
+				batch.complete(0, 0);
+				throw new IOException("failed");
+			}
+		)) {
+			CompletableFuture<Integer> future = executor.submit(1);
+			Assert.assertEquals((int) future.get(), 0);
+		}
+	}
+
+	@Test(timeOut = 10_000L)
+	public void run_notCompleted_failed() throws Exception
+	{
+		try (ArrayBatchWorkExecutor<Integer, Integer> executor = new ArrayBatchWorkExecutor<>(
+			new ClosingExecutor(Executors.newFixedThreadPool(1)),
+			10,
+			batch -> {}
+		)) {
+			CompletableFuture<Integer> future = executor.submit(1);
+			ExecutionException ex = Assert.expectThrows(ExecutionException.class, future::get);
+			assertThat(ex.getCause(), instanceOf(IllegalStateException.class));
+		}
+	}
+
+	@Test(timeOut = 10_000L)
+	public void run_processorThrows_failed() throws Exception
+	{
+		try (ArrayBatchWorkExecutor<Integer, Integer> executor = new ArrayBatchWorkExecutor<>(
+			new ClosingExecutor(Executors.newFixedThreadPool(1)),
+			10,
+			batch -> { throw new IOException("failed"); }
+		)) {
+			CompletableFuture<Integer> future = executor.submit(1);
+			ExecutionException ex = Assert.expectThrows(ExecutionException.class, future::get);
+			assertThat(ex.getCause(), instanceOf(IOException.class));
+		}
+	}
+
+	@Test(timeOut = 60_000L)
+	public void close_concurrentProducers_notProcessedAfterClose() throws Exception
+	{
+		for (int round = 0; round < 1000; ++round) {
+			AtomicBoolean closed = new AtomicBoolean();
+			AtomicInteger afterClose = new AtomicInteger();
+			List<CompletableFuture<Integer>> futures = Collections.synchronizedList(new ArrayList<>());
+			ArrayBatchWorkExecutor<Integer, Integer> executor = new ArrayBatchWorkExecutor<>(
+				DirectExecutor.getInstance(),
+				10,
+				batch -> {
+					if (closed.get()) {
+						afterClose.incrementAndGet();
+					}
+					for (int i = 0; i < batch.size(); ++i) {
+						batch.complete(i, batch.get(i));
+					}
+				}
+			);
+			List<Thread> producers = new ArrayList<>();
+			for (int t = 0; t < 4; ++t) {
+				Thread producer = new Thread(() -> {
+					try {
+						for (int i = 0; i < 1000; ++i) {
+							futures.add(executor.submit(i));
+						}
+					}
+					catch (RejectedExecutionException ex) {
+						// closed
+					}
+				});
+				producer.start();
+				producers.add(producer);
+			}
+			executor.close();
+			closed.set(true);
+			for (Thread producer: producers) {
+				producer.join();
+			}
+			Assert.assertEquals(afterClose.get(), 0);
+			for (CompletableFuture<Integer> future: futures) {
+				Assert.assertTrue(future.isDone());
+			}
+		}
+	}
+
+	@Test(timeOut = 10_000L, expectedExceptions = RejectedExecutionException.class)
+	public void submit_closed_rejected()
+	{
+		ArrayBatchWorkExecutor<Integer, Integer> executor = new ArrayBatchWorkExecutor<>(
+			new ClosingExecutor(Executors.newFixedThreadPool(1)),
+			10,
+			batch -> {}
+		);
+		executor.close();
+		executor.submit(1);
+	}
+}
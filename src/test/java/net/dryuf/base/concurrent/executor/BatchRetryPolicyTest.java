@@ -0,0 +1,45 @@
+package net.dryuf.base.concurrent.executor;
+
+import net.dryuf.base.concurrent.future.ScheduledUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+
+public class BatchRetryPolicyTest
+{
+	@Test
+	public void getDelayNs_exponential_capped()
+	{
+		BatchRetryPolicy policy = new BatchRetryPolicy(100, 10, 100, TimeUnit.MILLISECONDS, false);
+
+		Assert.assertEquals(policy.getDelayNs(1), TimeUnit.MILLISECONDS.toNanos(10));
+		Assert.assertEquals(policy.getDelayNs(2), TimeUnit.MILLISECONDS.toNanos(20));
+		Assert.assertEquals(policy.getDelayNs(3), TimeUnit.MILLISECONDS.toNanos(40));
+		Assert.assertEquals(policy.getDelayNs(5), TimeUnit.MILLISECONDS.toNanos(100));
+		Assert.assertEquals(policy.getDelayNs(99), TimeUnit.MILLISECONDS.toNanos(100));
+	}
+
+	@Test
+	public void shouldRetry_attempts_limited()
+	{
+		BatchRetryPolicy policy = new BatchRetryPolicy(3, 10, 100, TimeUnit.MILLISECONDS, false);
+
+		Assert.assertTrue(policy.shouldRetry(new IOException(), 1));
+		Assert.assertTrue(policy.shouldRetry(new IOException(), 2));
+		Assert.assertFalse(policy.shouldRetry(new IOException(), 3));
+	}
+
+	@Test
+	public void shouldRetry_notRetryable_false()
+	{
+		BatchRetryPolicy policy = new BatchRetryPolicy(3, 10, 100, TimeUnit.MILLISECONDS, false,
+			ex -> ex instanceof IOException, ScheduledUtil.sharedExecutor());
+
+		Assert.assertTrue(policy.shouldRetry(new CompletionException(new IOException()), 1));
+		Assert.assertFalse(policy.shouldRetry(new IllegalArgumentException(), 1));
+	}
+}
@@ -0,0 +1,97 @@
+package net.dryuf.base.concurrent.executor;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+
+/**
+ * Tests for {@link BatchSequencingExecutor}.
+ */
+public class BatchSequencingExecutorTest
+{
+	@Test(timeOut = 100_000L)
+	public void execute_sequence_ordered()
+	{
+		for (int t = 0; t < 100; ++t) {
+			List<Integer> result = new ArrayList<>();
+			AtomicInteger running = new AtomicInteger();
+			try (BatchSequencingExecutor<Integer> executor = new BatchSequencingExecutor<>(batch -> {
+				assertEquals(running.incrementAndGet(), 1);
+				result.addAll(batch);
+				running.decrementAndGet();
+			})) {
+				for (int i = 0; i < 10000; ++i) {
+					executor.execute(i);
+				}
+			}
+			assertEquals(result, IntStream.range(0, 10000).boxed().collect(Collectors.toList()));
+		}
+	}
+
+	@Test(timeOut = 10_000L)
+	public void execute_blockedConsumer_batched() throws InterruptedException
+	{
+		List<List<Integer>> batches = new ArrayList<>();
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch blocker = new CountDownLatch(1);
+		try (BatchSequencingExecutor<Integer> executor = new BatchSequencingExecutor<>(batch -> {
+			started.countDown();
+			blocker.await();
+			batches.add(batch);
+		})) {
+			executor.execute(0);
+			started.await();
+			executor.execute(1);
+			executor.execute(2);
+			executor.execute(3);
+			blocker.countDown();
+		}
+		assertEquals(batches.size(), 2);
+		assertEquals(batches.get(1), IntStream.range(1, 4).boxed().collect(Collectors.toList()));
+	}
+
+	@Test(timeOut = 10_000L)
+	public void execute_consumerFailed_continue()
+	{
+		AtomicInteger counter = new AtomicInteger();
+		try (BatchSequencingExecutor<Integer> executor = new BatchSequencingExecutor<>(batch -> {
+			counter.addAndGet(batch.size());
+			throw new NumberFormatException();
+		})) {
+			for (int i = 0; i < 1000; ++i) {
+				executor.execute(i);
+			}
+		}
+		assertEquals(counter.get(), 1000);
+	}
+
+	@Test(timeOut = 10_000L)
+	public void execute_closed_rejected()
+	{
+		BatchSequencingExecutor<Integer> executor = new BatchSequencingExecutor<>(batch -> {});
+		executor.execute(0);
+		executor.close();
+		expectThrows(RejectedExecutionException.class, () -> executor.execute(1));
+	}
+
+	@Test(timeOut = 10_000L)
+	public void close_interrupted_interrupted() throws InterruptedException
+	{
+		try (BatchSequencingExecutor<Integer> executor = new BatchSequencingExecutor<>(batch -> {})) {
+			executor.execute(0);
+			Thread.currentThread().interrupt();
+		}
+		assertTrue(Thread.interrupted());
+	}
+}
@@ -1,17 +1,25 @@
 package net.dryuf.base.concurrent.executor;
 
 import net.dryuf.base.concurrent.future.FutureUtil;
+import net.dryuf.base.concurrent.future.ScheduledUtil;
 
 import net.dryuf.base.concurrent.executor.BatchWorkExecutor;
 import net.dryuf.base.concurrent.executor.ClosingExecutor;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
@@ -158,4 +166,439 @@ public class BatchWorkExecutorTest
 			BatchWorkExecutor.PENDING_MAX = old;
 		}
 	}
+
+	@Test(timeOut = 5_000L)
+	public void linger_minBatchSize_startedImmediately() throws Exception
+	{
+		List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+		List<CompletableFuture<Integer>> futures = new ArrayList<>();
+		try (BatchWorkExecutor<Integer, Integer> executor = BatchWorkExecutor.builder(new ClosingExecutor(Executors.newFixedThreadPool(2)))
+			.batchSize(100)
+			.linger(5, 1, TimeUnit.HOURS)
+			.build(l -> {
+				batchSizes.add(l.size());
+				return l.stream().map(v -> CompletableFuture.completedFuture(v*v)).collect(Collectors.toList());
+			})) {
+			for (int i = 0; i < 5; ++i) {
+				futures.add(executor.submit(i));
+			}
+			Assert.assertEquals((int) futures.get(4).get(), 16);
+		}
+		Assert.assertEquals(batchSizes, Collections.singletonList(5));
+	}
+
+	@Test(timeOut = 5_000L)
+	public void linger_maxDelay_startedAfterDelay() throws Exception
+	{
+		List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+		try (BatchWorkExecutor<Integer, Integer> executor = BatchWorkExecutor.builder(new ClosingExecutor(Executors.newFixedThreadPool(2)))
+			.batchSize(100)
+			.linger(100, 50, TimeUnit.MILLISECONDS)
+			.build(l -> {
+				batchSizes.add(l.size());
+				return l.stream().map(v -> CompletableFuture.completedFuture(v*v)).collect(Collectors.toList());
+			})) {
+			long start = System.nanoTime();
+			executor.submit(1);
+			executor.submit(2);
+			CompletableFuture<Integer> last = executor.submit(3);
+			Assert.assertEquals((int) last.get(), 9);
+			Assert.assertTrue(System.nanoTime()-start >= TimeUnit.MILLISECONDS.toNanos(50));
+		}
+		Assert.assertEquals(batchSizes, Collections.singletonList(3));
+	}
+
+	@Test(timeOut = 5_000L)
+	public void linger_close_startedImmediately() throws Exception
+	{
+		CompletableFuture<Integer> future;
+		try (BatchWorkExecutor<Integer, Integer> executor = BatchWorkExecutor.builder(new ClosingExecutor(Executors.newFixedThreadPool(2)))
+			.batchSize(100)
+			.linger(100, 1, TimeUnit.HOURS)
+			.build(l -> l.stream().map(v -> CompletableFuture.completedFuture(v*v)).collect(Collectors.toList()))) {
+			future = executor.submit(3);
+		}
+		Assert.assertEquals((int) future.getNow(null), 9);
+	}
+
+	@Test(timeOut = 10_000L)
+	public void adaptive_overload_adapted() throws Exception
+	{
+		AdaptiveBatchSize batchSize = new AdaptiveBatchSize(2, 50, 1, TimeUnit.HOURS);
+		AtomicInteger maxBatch = new AtomicInteger();
+		AtomicInteger itemsCount = new AtomicInteger();
+		try (BatchWorkExecutor<Long, Long> executor = BatchWorkExecutor.builder(new ClosingExecutor(Executors.newFixedThreadPool(2)))
+			.adaptiveBatchSize(batchSize)
+			.build(l -> {
+				maxBatch.accumulateAndGet(l.size(), Math::max);
+				itemsCount.addAndGet(l.size());
+				return l.stream().map(v -> CompletableFuture.completedFuture(v*v)).collect(Collectors.toList());
+			})) {
+			for (long i = 0; i < 10_000; ++i) {
+				executor.submit(i);
+			}
+		}
+		Assert.assertEquals(itemsCount.get(), 10_000);
+		Assert.assertTrue(maxBatch.get() <= 50);
+		Assert.assertTrue(batchSize.getBatchSize() > 2, "Expected batch size increased: "+batchSize.getBatchSize());
+	}
+
+	@Test(timeOut = 10_000L)
+	public void adaptive_asyncSlowResults_notIncreased() throws Exception
+	{
+		AdaptiveBatchSize batchSize = new AdaptiveBatchSize(2, 50, 5, TimeUnit.MILLISECONDS);
+		List<CompletableFuture<Long>> futures = new ArrayList<>();
+		try (BatchWorkExecutor<Long, Long> executor = BatchWorkExecutor.builder(new ClosingExecutor(Executors.newFixedThreadPool(2)))
+			.adaptiveBatchSize(batchSize)
+			.build(l -> l.stream()
+				.map(v -> {
+					CompletableFuture<Long> result = new CompletableFuture<>();
+					ScheduledUtil.sharedExecutor().schedule(() -> result.complete(v*v), 20, TimeUnit.MILLISECONDS);
+					return result;
+				})
+				.collect(Collectors.toList()))) {
+			for (long i = 0; i < 100; ++i) {
+				futures.add(executor.submit(i));
+			}
+		}
+		for (CompletableFuture<Long> future: futures) {
+			future.get();
+		}
+		Assert.assertEquals(batchSize.getBatchSize(), 2);
+		Assert.assertTrue(batchSize.getAverageLatencyNs() >= TimeUnit.MILLISECONDS.toNanos(20),
+			"Expected latency including async completion: "+batchSize.getAverageLatencyNs());
+	}
+
+	@Test(timeOut = 5_000L)
+	public void bounded_reject_rejected() throws Exception
+	{
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		List<List<Integer>> batches = Collections.synchronizedList(new ArrayList<>());
+		CompletableFuture<Integer> last;
+		try (BatchWorkExecutor<Integer, Integer> executor = createBlockedBounded(SequencingExecutor.OverflowPolicy.REJECT, started, release, batches)) {
+			executor.submit(1);
+			started.await();
+			executor.submit(2);
+			last = executor.submit(3);
+			Assert.expectThrows(RejectedExecutionException.class, () -> executor.submit(4));
+			release.countDown();
+		}
+		Assert.assertEquals((int) last.getNow(null), 9);
+		Assert.assertEquals(batches, Arrays.asList(Arrays.asList(1), Arrays.asList(2, 3)));
+	}
+
+	@Test(timeOut = 5_000L)
+	public void bounded_async_admittedLater() throws Exception
+	{
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		List<List<Integer>> batches = Collections.synchronizedList(new ArrayList<>());
+		CompletableFuture<Integer> f4;
+		CompletableFuture<Integer> f5;
+		try (BatchWorkExecutor<Integer, Integer> executor = createBlockedBounded(SequencingExecutor.OverflowPolicy.ASYNC, started, release, batches)) {
+			executor.submit(1);
+			started.await();
+			executor.submit(2);
+			executor.submit(3);
+			f4 = executor.submit(4);
+			f5 = executor.submit(5);
+			Assert.assertFalse(f4.isDone());
+			release.countDown();
+		}
+		Assert.assertEquals((int) f4.getNow(null), 16);
+		Assert.assertEquals((int) f5.getNow(null), 25);
+		Assert.assertEquals(batches, Arrays.asList(Arrays.asList(1), Arrays.asList(2, 3), Arrays.asList(4, 5)));
+	}
+
+	@Test(timeOut = 5_000L)
+	public void bounded_block_blocked() throws Exception
+	{
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		List<List<Integer>> batches = Collections.synchronizedList(new ArrayList<>());
+		CompletableFuture<CompletableFuture<Integer>> blocked;
+		try (BatchWorkExecutor<Integer, Integer> executor = createBlockedBounded(SequencingExecutor.OverflowPolicy.BLOCK, started, release, batches)) {
+			executor.submit(1);
+			started.await();
+			executor.submit(2);
+			executor.submit(3);
+			blocked = CompletableFuture.supplyAsync(() -> executor.submit(4));
+			Thread.sleep(100);
+			Assert.assertFalse(blocked.isDone());
+			release.countDown();
+			blocked.get();
+		}
+		Assert.assertEquals((int) blocked.get().getNow(null), 16);
+		Assert.assertEquals(batches, Arrays.asList(Arrays.asList(1), Arrays.asList(2, 3), Arrays.asList(4)));
+	}
+
+	@Test(timeOut = 10_000L)
+	public void bounded_maxRunningBatches_limited() throws Exception
+	{
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		AtomicInteger itemsCount = new AtomicInteger();
+		List<CompletableFuture<Integer>> futures = new ArrayList<>();
+		try (BatchWorkExecutor<Integer, Integer> executor = BatchWorkExecutor.builder(new ClosingExecutor(Executors.newFixedThreadPool(4)))
+			.batchSize(1)
+			.maxRunningBatches(2)
+			.build(l -> {
+				maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				Thread.sleep(1);
+				itemsCount.addAndGet(l.size());
+				running.decrementAndGet();
+				return l.stream().map(v -> CompletableFuture.completedFuture(v*v)).collect(Collectors.toList());
+			})) {
+			for (int i = 0; i < 200; ++i) {
+				futures.add(executor.submit(i));
+			}
+		}
+		Assert.assertEquals(itemsCount.get(), 200);
+		Assert.assertTrue(maxRunning.get() <= 2, "Expected at most 2 running batches: "+maxRunning.get());
+		for (int i = 0; i < 200; ++i) {
+			Assert.assertEquals((int) futures.get(i).getNow(null), i*i);
+		}
+	}
+
+	@Test(timeOut = 5_000L)
+	public void retry_itemFailedOnce_succeeded() throws Exception
+	{
+		Set<Integer> failed = Collections.synchronizedSet(new HashSet<>());
+		List<CompletableFuture<Integer>> futures = new ArrayList<>();
+		try (BatchWorkExecutor<Integer, Integer> executor = BatchWorkExecutor.builder(new ClosingExecutor(Executors.newFixedThreadPool(2)))
+			.batchSize(10)
+			.retryPolicy(new BatchRetryPolicy(3, 1, 10, TimeUnit.MILLISECONDS, false))
+			.build(l -> l.stream()
+				.map(v -> v%2 == 0 && failed.add(v) ?
+					FutureUtil.<Integer>exception(new IOException("failed")) :
+					CompletableFuture.completedFuture(v*v))
+				.collect(Collectors.toList()))) {
+			for (int i = 0; i < 20; ++i) {
+				futures.add(executor.submit(i));
+			}
+		}
+		for (int i = 0; i < 20; ++i) {
+			Assert.assertEquals((int) futures.get(i).getNow(null), i*i);
+		}
+		Assert.assertEquals(failed.size(), 10);
+	}
+
+	@Test(timeOut = 5_000L)
+	public void retry_bisectPoison_isolated() throws Exception
+	{
+		AtomicInteger poisonAttempts = new AtomicInteger();
+		List<CompletableFuture<Integer>> futures = new ArrayList<>();
+		try (BatchWorkExecutor<Integer, Integer> executor = BatchWorkExecutor.builder(new ClosingExecutor(Executors.newFixedThreadPool(1)))
+			.batchSize(16)
+			.retryPolicy(new BatchRetryPolicy(2, 1, 10, TimeUnit.MILLISECONDS, true))
+			.build(l -> {
+				if (l.contains(7)) {
+					if (l.size() == 1) {
+						poisonAttempts.incrementAndGet();
+					}
+					throw new IOException("poison");
+				}
+				return l.stream().map(v -> CompletableFuture.completedFuture(v*v)).collect(Collectors.toList());
+			})) {
+			for (int i = 0; i < 16; ++i) {
+				futures.add(executor.submit(i));
+			}
+		}
+		for (int i = 0; i < 16; ++i) {
+			if (i == 7) {
+				ExecutionException ex = Assert.expectThrows(ExecutionException.class, futures.get(i)::get);
+				assertThat(ex.getCause(), instanceOf(IOException.class));
+			}
+			else {
+				Assert.assertEquals((int) futures.get(i).getNow(null), i*i);
+			}
+		}
+		Assert.assertEquals(poisonAttempts.get(), 2);
+	}
+
+	@Test(timeOut = 5_000L)
+	public void retry_attemptsExhausted_failed() throws Exception
+	{
+		AtomicInteger attempts = new AtomicInteger();
+		try (BatchWorkExecutor<Integer, Integer> executor = BatchWorkExecutor.builder(new ClosingExecutor(Executors.newFixedThreadPool(1)))
+			.batchSize(10)
+			.retryPolicy(new BatchRetryPolicy(3, 1, 10, TimeUnit.MILLISECONDS, false))
+			.build(l -> {
+				attempts.incrementAndGet();
+				throw new IOException("failed");
+			})) {
+			CompletableFuture<Integer> future = executor.submit(1);
+			ExecutionException ex = Assert.expectThrows(ExecutionException.class, future::get);
+			assertThat(ex.getCause(), instanceOf(IOException.class));
+		}
+		Assert.assertEquals(attempts.get(), 3);
+	}
+
+	@Test(timeOut = 5_000L)
+	public void ordered_reverseCompletion_completedInOrder() throws Exception
+	{
+		List<CompletableFuture<Integer>> deferred = Collections.synchronizedList(new ArrayList<>());
+		List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+		List<CompletableFuture<Integer>> futures = new ArrayList<>();
+		try (BatchWorkExecutor<Integer, Integer> executor = BatchWorkExecutor.builder(new ClosingExecutor(Executors.newFixedThreadPool(4)))
+			.batchSize(10)
+			.orderedResults(true)
+			.build(l -> {
+				List<CompletableFuture<Integer>> results = l.stream().map(v -> new CompletableFuture<Integer>()).collect(Collectors.toList());
+				deferred.addAll(results);
+				return results;
+			})) {
+			for (int i = 0; i < 100; ++i) {
+				int index = i;
+				futures.add(executor.submit(i).whenComplete((v, x) -> order.add(index)));
+			}
+			while (deferred.size() < 100) {
+				Thread.sleep(1);
+			}
+			List<CompletableFuture<Integer>> reversed = new ArrayList<>(deferred);
+			Collections.reverse(reversed);
+			for (CompletableFuture<Integer> future: reversed) {
+				if (future == reversed.get(50)) {
+					future.completeExceptionally(new IOException("failed"));
+				}
+				else {
+					future.complete(0);
+				}
+			}
+		}
+		Assert.assertEquals(order, IntStream.range(0, 100).boxed().collect(Collectors.toList()));
+		Assert.assertEquals(futures.stream().filter(CompletableFuture::isCompletedExceptionally).count(), 1L);
+	}
+
+	@Test(timeOut = 10_000L)
+	public void ordered_concurrentProducers_completedInOrder() throws Exception
+	{
+		List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+		try (BatchWorkExecutor<Integer, Integer> executor = BatchWorkExecutor.builder(new ClosingExecutor(Executors.newFixedThreadPool(4)))
+			.batchSize(7)
+			.orderedResults(true)
+			.build(l -> l.stream().map(v -> CompletableFuture.completedFuture(v)).collect(Collectors.toList()))) {
+			List<Thread> producers = new ArrayList<>();
+			for (int t = 0; t < 4; ++t) {
+				int base = t*10_000;
+				Thread producer = new Thread(() -> {
+					for (int i = 0; i < 10_000; ++i) {
+						executor.submit(base+i).thenAccept(order::add);
+					}
+				});
+				producer.start();
+				producers.add(producer);
+			}
+			for (Thread producer: producers) {
+				producer.join();
+			}
+		}
+		Assert.assertEquals(order.size(), 40_000);
+		int[] last = new int[4];
+		Arrays.fill(last, -1);
+		for (int v: order) {
+			int t = v/10_000;
+			Assert.assertTrue(v%10_000 > last[t], "Expected per producer order: "+v);
+			last[t] = v%10_000;
+		}
+	}
+
+	@Test(timeOut = 5_000L)
+	public void builder_boundedRetryOrdered_completedInOrder() throws Exception
+	{
+		Set<Integer> failed = Collections.synchronizedSet(new HashSet<>());
+		List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+		List<CompletableFuture<Integer>> futures = new ArrayList<>();
+		try (BatchWorkExecutor<Integer, Integer> executor = BatchWorkExecutor.builder(new ClosingExecutor(Executors.newFixedThreadPool(2)))
+			.batchSize(5)
+			.maxPending(10, SequencingExecutor.OverflowPolicy.BLOCK)
+			.maxRunningBatches(1)
+			.retryPolicy(new BatchRetryPolicy(3, 1, 10, TimeUnit.MILLISECONDS, false))
+			.orderedResults(true)
+			.build(l -> l.stream()
+				.map(v -> v%3 == 0 && failed.add(v) ?
+					FutureUtil.<Integer>exception(new IOException("failed")) :
+					CompletableFuture.completedFuture(v*v))
+				.collect(Collectors.toList()))) {
+			for (int i = 0; i < 100; ++i) {
+				int index = i;
+				futures.add(executor.submit(i).whenComplete((v, x) -> order.add(index)));
+			}
+		}
+		for (int i = 0; i < 100; ++i) {
+			Assert.assertEquals((int) futures.get(i).get(), i*i);
+		}
+		Assert.assertEquals(order, IntStream.range(0, 100).boxed().collect(Collectors.toList()));
+	}
+
+	@Test
+	public void builder_invalidArguments_rejected()
+	{
+		BatchWorkExecutor.Builder builder = BatchWorkExecutor.builder(DirectExecutor.getInstance());
+		Assert.expectThrows(IllegalArgumentException.class, () -> builder.batchSize(0));
+		Assert.expectThrows(IllegalArgumentException.class, () -> builder.maxPending(0, SequencingExecutor.OverflowPolicy.BLOCK));
+		Assert.expectThrows(IllegalArgumentException.class, () -> builder.maxRunningBatches(0));
+		Assert.expectThrows(IllegalStateException.class, () -> builder.build(l -> Collections.<CompletableFuture<Object>>emptyList()));
+	}
+
+	@Test(timeOut = 60_000L)
+	public void run_concurrentProducersDirect_closed() throws Exception
+	{
+		for (int round = 0; round < 1000; ++round) {
+			AtomicInteger itemsCount = new AtomicInteger();
+			List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+			try (BatchWorkExecutor<Integer, Integer> executor = new BatchWorkExecutor<>(
+				DirectExecutor.getInstance(),
+				10,
+				l -> {
+					itemsCount.addAndGet(l.size());
+					return l.stream().map(CompletableFuture::completedFuture).collect(Collectors.toList());
+				}
+			)) {
+				CountDownLatch start = new CountDownLatch(1);
+				List<Thread> producers = new ArrayList<>();
+				for (int t = 0; t < 32; ++t) {
+					Thread producer = new Thread(() -> {
+						try {
+							start.await();
+						}
+						catch (InterruptedException e) {
+							throw new RuntimeException(e);
+						}
+						try {
+							for (int i = 0; i < 2000/32; ++i) {
+								executor.submit(i);
+							}
+						}
+						catch (Throwable ex) {
+							failures.add(ex);
+						}
+					});
+					producer.start();
+					producers.add(producer);
+				}
+				start.countDown();
+				for (Thread producer: producers) {
+					producer.join();
+				}
+			}
+			Assert.assertEquals(failures, Collections.emptyList());
+			Assert.assertEquals(itemsCount.get(), 2000/32*32);
+		}
+	}
+
+	private BatchWorkExecutor<Integer, Integer> createBlockedBounded(SequencingExecutor.OverflowPolicy overflowPolicy, CountDownLatch started, CountDownLatch release, List<List<Integer>> batches)
+	{
+		return BatchWorkExecutor.builder(new ClosingExecutor(Executors.newFixedThreadPool(2)))
+			.batchSize(10)
+			.maxPending(2, overflowPolicy)
+			.maxRunningBatches(1)
+			.build(l -> {
+				batches.add(new ArrayList<>(l));
+				started.countDown();
+				release.await();
+				return l.stream().map(v -> CompletableFuture.completedFuture(v*v)).collect(Collectors.toList());
+			});
+	}
 }
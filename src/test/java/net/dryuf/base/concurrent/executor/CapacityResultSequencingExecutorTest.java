@@ -6,8 +6,14 @@ import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.mockito.ArgumentMatchers.any;
@@ -16,6 +22,8 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.expectThrows;
 
 
@@ -100,4 +108,185 @@ public class CapacityResultSequencingExecutorTest
 		}
 		Assert.assertTrue(System.currentTimeMillis()-start >= 400, "time not parallel");
 	}
+
+	@Test(timeOut = 10_000L)
+	public void submitAsync_noCapacity_admittedLater() throws Exception
+	{
+		CompletableFuture<Void> blocker = new CompletableFuture<>();
+		List<Integer> results = Collections.synchronizedList(new ArrayList<>());
+		try (CapacityResultSequencingExecutor executor = new CapacityResultSequencingExecutor(1, 1)) {
+			CompletableFuture<CompletableFuture<Integer>> first =
+				executor.submitAsync(1, () -> { blocker.get(); return 0; }, (r) -> { results.add(r); return r; });
+			CompletableFuture<CompletableFuture<Integer>> second =
+				executor.submitAsync(1, () -> 1, (r) -> { results.add(r); return r; });
+			CompletableFuture<CompletableFuture<Integer>> third =
+				executor.submitAsync(1, () -> 2, (r) -> { results.add(r); return r; });
+			assertTrue(first.isDone());
+			assertFalse(second.isDone());
+			assertFalse(third.isDone());
+			blocker.complete(null);
+			assertEquals(FutureUtil.sneakyGet(FutureUtil.sneakyGet(third)), 2);
+		}
+		assertEquals(results, Arrays.asList(0, 1, 2));
+	}
+
+	@Test(timeOut = 10_000L)
+	public void submitAsync_cancelled_withdrawn() throws Exception
+	{
+		CompletableFuture<Void> blocker = new CompletableFuture<>();
+		AtomicInteger executed = new AtomicInteger();
+		try (CapacityResultSequencingExecutor executor = new CapacityResultSequencingExecutor(1, 1)) {
+			executor.submitAsync(1, () -> { blocker.get(); return 0; }, (r) -> r);
+			CompletableFuture<CompletableFuture<Integer>> second =
+				executor.submitAsync(1, () -> executed.incrementAndGet(), (r) -> r);
+			assertTrue(second.cancel(false));
+			blocker.complete(null);
+		}
+		assertEquals(executed.get(), 0);
+	}
+
+	@Test(timeOut = 10_000L)
+	public void submit_interrupted_rejected() throws Exception
+	{
+		CompletableFuture<Void> blocker = new CompletableFuture<>();
+		try (CapacityResultSequencingExecutor executor = new CapacityResultSequencingExecutor(1, 1)) {
+			executor.submit(1, () -> { blocker.get(); return 0; }, (r) -> r);
+			Thread.currentThread().interrupt();
+			expectThrows(RejectedExecutionException.class, () -> executor.submit(1, () -> 1, (r) -> r));
+			assertTrue(Thread.interrupted());
+			blocker.complete(null);
+		}
+	}
+
+	@Test(timeOut = 10_000L)
+	public void submitAsync_multiDimension_waitsForAllDimensions() throws Exception
+	{
+		CompletableFuture<Void> blocker = new CompletableFuture<>();
+		try (CapacityResultSequencingExecutor executor = new CapacityResultSequencingExecutor(new long[]{ 2, 1 }, 4)) {
+			executor.submitAsync(new long[]{ 1, 1 }, () -> { blocker.get(); return 0; }, (r) -> r);
+			CompletableFuture<CompletableFuture<Integer>> second =
+				executor.submitAsync(new long[]{ 1, 1 }, () -> 1, (r) -> r);
+			assertFalse(second.isDone());
+			blocker.complete(null);
+			assertEquals(FutureUtil.sneakyGet(FutureUtil.sneakyGet(second)), 1);
+		}
+	}
+
+	@Test
+	public void submit_dimensionMismatch_rejected()
+	{
+		try (CapacityResultSequencingExecutor executor = new CapacityResultSequencingExecutor(new long[]{ 2, 1 }, 4)) {
+			expectThrows(IllegalArgumentException.class, () -> executor.submit(1, () -> 0, (r) -> r));
+			expectThrows(IllegalArgumentException.class, () -> executor.submit(new long[]{ 1 }, () -> 0, (r) -> r));
+		}
+	}
+
+	@Test(timeOut = 10_000L)
+	public void submitAsync_fifo_smallWaitsBehindLarge() throws Exception
+	{
+		CompletableFuture<Void> blocker = new CompletableFuture<>();
+		try (CapacityResultSequencingExecutor executor = new CapacityResultSequencingExecutor(3, 4)) {
+			executor.submitAsync(2, () -> { blocker.get(); return 0; }, (r) -> r);
+			CompletableFuture<CompletableFuture<Integer>> large = executor.submitAsync(2, () -> 1, (r) -> r);
+			CompletableFuture<CompletableFuture<Integer>> small = executor.submitAsync(1, () -> 2, (r) -> r);
+			assertFalse(large.isDone());
+			assertFalse(small.isDone());
+			blocker.complete(null);
+			assertEquals(FutureUtil.sneakyGet(FutureUtil.sneakyGet(small)), 2);
+			assertEquals(FutureUtil.sneakyGet(FutureUtil.sneakyGet(large)), 1);
+		}
+	}
+
+	@Test(timeOut = 10_000L)
+	public void submitAsync_firstFit_smallPassesLarge() throws Exception
+	{
+		CompletableFuture<Void> blocker = new CompletableFuture<>();
+		List<Integer> results = Collections.synchronizedList(new ArrayList<>());
+		try (CapacityResultSequencingExecutor executor = new CapacityResultSequencingExecutor(
+			new long[]{ 3 }, 4, CapacityResultSequencingExecutor.AdmissionPolicy.FIRST_FIT, CommonPoolExecutor.getInstance())) {
+			executor.submitAsync(2, () -> { blocker.get(); return 0; }, (r) -> { results.add(r); return r; });
+			CompletableFuture<CompletableFuture<Integer>> large = executor.submitAsync(2, () -> 1, (r) -> { results.add(r); return r; });
+			CompletableFuture<CompletableFuture<Integer>> small = executor.submitAsync(1, () -> 2, (r) -> { results.add(r); return r; });
+			assertFalse(large.isDone());
+			assertTrue(small.isDone());
+			blocker.complete(null);
+			assertEquals(FutureUtil.sneakyGet(FutureUtil.sneakyGet(large)), 1);
+		}
+		assertEquals(results, Arrays.asList(0, 1, 2));
+	}
+
+	@Test(timeOut = 10_000L)
+	public void submitAsync_firstFitPassedOverExceeding_admittedInOrder() throws Exception
+	{
+		CompletableFuture<Void> blocker = new CompletableFuture<>();
+		List<Integer> results = Collections.synchronizedList(new ArrayList<>());
+		try (CapacityResultSequencingExecutor executor = new CapacityResultSequencingExecutor(
+			new long[]{ 3 }, 4, CapacityResultSequencingExecutor.AdmissionPolicy.FIRST_FIT, CommonPoolExecutor.getInstance())) {
+			executor.submitAsync(2, () -> { blocker.get(); return 0; }, (r) -> { results.add(r); return r; });
+			CompletableFuture<CompletableFuture<Integer>> large = executor.submitAsync(3, () -> 1, (r) -> { results.add(r); return r; });
+			CompletableFuture<CompletableFuture<Integer>> small = executor.submitAsync(1, () -> 2, (r) -> { results.add(r); return r; });
+			assertTrue(small.isDone());
+			// the small one holds the capacity until the large one is sequenced, the large one must not wait for it:
+			blocker.complete(null);
+			assertEquals(FutureUtil.sneakyGet(FutureUtil.sneakyGet(small)), 2);
+			assertEquals(FutureUtil.sneakyGet(FutureUtil.sneakyGet(large)), 1);
+		}
+		assertEquals(results, Arrays.asList(0, 1, 2));
+	}
+
+	@Test(timeOut = 10_000L)
+	public void cancel_waitingAdmission_followingCompleted() throws Exception
+	{
+		CompletableFuture<Void> blocker = new CompletableFuture<>();
+		try (CapacityResultSequencingExecutor executor = new CapacityResultSequencingExecutor(
+			new long[]{ 3 }, 4, CapacityResultSequencingExecutor.AdmissionPolicy.FIRST_FIT, CommonPoolExecutor.getInstance())) {
+			executor.submitAsync(2, () -> { blocker.get(); return 0; }, (r) -> r);
+			CompletableFuture<CompletableFuture<Integer>> large = executor.submitAsync(2, () -> 1, (r) -> r);
+			CompletableFuture<CompletableFuture<Integer>> small = executor.submitAsync(1, () -> 2, (r) -> r);
+			assertTrue(large.cancel(true));
+			blocker.complete(null);
+			assertEquals(FutureUtil.sneakyGet(FutureUtil.sneakyGet(small)), 2);
+		}
+	}
+
+	@Test(timeOut = 10_000L)
+	public void cancel_pendingPredecessor_releasesCapacityEarly() throws Exception
+	{
+		CompletableFuture<Void> blocker = new CompletableFuture<>();
+		List<Integer> results = Collections.synchronizedList(new ArrayList<>());
+		try (CapacityResultSequencingExecutor executor = new CapacityResultSequencingExecutor(2, 4, new ClosingExecutor(Executors.newFixedThreadPool(4)))) {
+			executor.submitAsync(1, () -> { blocker.get(); return 0; }, (r) -> { results.add(r); return r; });
+			CompletableFuture<Integer> cancelled = FutureUtil.sneakyGet(
+				executor.submitAsync(1, () -> { Thread.sleep(60_000); return 1; }, (r) -> { results.add(r); return r; }));
+			CompletableFuture<CompletableFuture<Integer>> third =
+				executor.submitAsync(1, () -> 2, (r) -> { results.add(r); return r; });
+			assertFalse(third.isDone());
+			assertTrue(cancelled.cancel(true));
+			assertTrue(cancelled.isCancelled());
+			// admitted while the first is still running:
+			CompletableFuture<Integer> thirdResult = FutureUtil.sneakyGet(third);
+			assertFalse(thirdResult.isDone());
+			blocker.complete(null);
+			assertEquals(FutureUtil.sneakyGet(thirdResult), 2);
+		}
+		assertEquals(results, Arrays.asList(0, 2));
+	}
+
+	@Test(timeOut = 10_000L)
+	public void failure_pendingPredecessor_releasesCapacityEarly() throws Exception
+	{
+		CompletableFuture<Void> blocker = new CompletableFuture<>();
+		try (CapacityResultSequencingExecutor executor = new CapacityResultSequencingExecutor(2, 4, new ClosingExecutor(Executors.newFixedThreadPool(4)))) {
+			executor.submitAsync(1, () -> { blocker.get(); return 0; }, (r) -> r);
+			CompletableFuture<Integer> failed = FutureUtil.sneakyGet(
+				executor.submitAsync(1, (Callable<Integer>) () -> { throw new IOException(); }, (r) -> r));
+			CompletableFuture<CompletableFuture<Integer>> third = executor.submitAsync(1, () -> 2, (r) -> r);
+			// admitted while the first is still running:
+			FutureUtil.sneakyGet(third);
+			assertFalse(failed.isDone());
+			blocker.complete(null);
+			expectThrows(IOException.class, () -> FutureUtil.sneakyGet(failed));
+			assertEquals(FutureUtil.sneakyGet(FutureUtil.sneakyGet(third)), 2);
+		}
+	}
 }
@@ -0,0 +1,92 @@
+package net.dryuf.base.concurrent.executor;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+
+
+public class DeduplicatingWorkExecutorTest
+{
+	@Test(timeOut = 5_000L)
+	public void submit_duplicates_coalesced() throws Exception
+	{
+		List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+		List<CompletableFuture<String>> futures = new ArrayList<>();
+		try (WorkExecutor<String, String> executor = new DeduplicatingWorkExecutor<>(createLingering(batches))) {
+			futures.add(executor.submit("a"));
+			futures.add(executor.submit("b"));
+			futures.add(executor.submit("a"));
+			futures.add(executor.submit("a"));
+			Assert.assertEquals(futures.stream().map(CompletableFuture::join).collect(Collectors.toList()),
+				Arrays.asList("A", "B", "A", "A"));
+
+			Assert.assertEquals(executor.submit("a").get(), "A");
+		}
+		Assert.assertEquals(batches, Arrays.asList(Arrays.asList("a", "b"), Collections.singletonList("a")));
+	}
+
+	@Test(timeOut = 5_000L)
+	public void submit_keyExtractor_coalescedByKey() throws Exception
+	{
+		List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+		try (WorkExecutor<String, String> executor = new DeduplicatingWorkExecutor<>(createLingering(batches), String::toLowerCase)) {
+			CompletableFuture<String> lower = executor.submit("a");
+			CompletableFuture<String> upper = executor.submit("A");
+			Assert.assertEquals(lower.get(), "A");
+			Assert.assertEquals(upper.get(), "A");
+		}
+		Assert.assertEquals(batches, Collections.singletonList(Collections.singletonList("a")));
+	}
+
+	@Test(timeOut = 5_000L)
+	public void submit_failure_fannedOut() throws Exception
+	{
+		try (WorkExecutor<String, String> executor = new DeduplicatingWorkExecutor<>(BatchWorkExecutor.builder(new ClosingExecutor(Executors.newFixedThreadPool(1)))
+			.batchSize(100)
+			.linger(100, 50, TimeUnit.MILLISECONDS)
+			.<String, String>build(l -> { throw new IOException("failed"); }))) {
+			CompletableFuture<String> first = executor.submit("a");
+			CompletableFuture<String> second = executor.submit("a");
+			ExecutionException ex = Assert.expectThrows(ExecutionException.class, first::get);
+			assertThat(ex.getCause(), instanceOf(IOException.class));
+			ex = Assert.expectThrows(ExecutionException.class, second::get);
+			assertThat(ex.getCause(), instanceOf(IOException.class));
+		}
+	}
+
+	@Test(timeOut = 5_000L)
+	public void submit_cancelled_othersCompleted() throws Exception
+	{
+		List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+		try (WorkExecutor<String, String> executor = new DeduplicatingWorkExecutor<>(createLingering(batches))) {
+			CompletableFuture<String> first = executor.submit("a");
+			CompletableFuture<String> second = executor.submit("a");
+			first.cancel(true);
+			Assert.assertEquals(second.get(), "A");
+		}
+	}
+
+	private BatchWorkExecutor<String, String> createLingering(List<List<String>> batches)
+	{
+		return BatchWorkExecutor.builder(new ClosingExecutor(Executors.newFixedThreadPool(1)))
+			.batchSize(100)
+			.linger(100, 50, TimeUnit.MILLISECONDS)
+			.build(l -> {
+				batches.add(new ArrayList<>(l));
+				return l.stream().map(v -> CompletableFuture.completedFuture(v.toUpperCase())).collect(Collectors.toList());
+			});
+	}
+}
@@ -0,0 +1,90 @@
+package net.dryuf.base.concurrent.executor;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+
+public class KeyedBatchWorkExecutorTest
+{
+	@Test(timeOut = 10_000L)
+	public void submit_multipleKeys_groupedByKey() throws Exception
+	{
+		AtomicInteger itemsCount = new AtomicInteger();
+		List<CompletableFuture<Integer>> futures = new ArrayList<>();
+		try (KeyedBatchWorkExecutor<Integer, Integer, Integer> executor = new KeyedBatchWorkExecutor<>(
+			new ClosingExecutor(Executors.newFixedThreadPool(2)),
+			(Integer v) -> v%3,
+			10,
+			(k, l) -> {
+				for (Integer v: l) {
+					Assert.assertEquals(v%3, (int) k);
+				}
+				itemsCount.addAndGet(l.size());
+				return l.stream().map(v -> CompletableFuture.completedFuture(v*v)).collect(Collectors.toList());
+			}
+		)) {
+			for (int i = 0; i < 10_000; ++i) {
+				futures.add(executor.submit(i));
+			}
+		}
+		Assert.assertEquals(itemsCount.get(), 10_000);
+		for (int i = 0; i < 10_000; ++i) {
+			Assert.assertEquals((int) futures.get(i).getNow(null), i*i);
+		}
+	}
+
+	@Test(timeOut = 5_000L)
+	public void linger_minBatchSize_flushedPerKey() throws Exception
+	{
+		List<Map.Entry<String, List<String>>> batches = Collections.synchronizedList(new ArrayList<>());
+		try (KeyedBatchWorkExecutor<String, String, String> executor = new KeyedBatchWorkExecutor<>(
+			new ClosingExecutor(Executors.newFixedThreadPool(2)),
+			(String v) -> v.substring(0, 1),
+			100,
+			3,
+			1, TimeUnit.HOURS,
+			(k, l) -> {
+				batches.add(new AbstractMap.SimpleImmutableEntry<>(k, new ArrayList<>(l)));
+				return l.stream().map(CompletableFuture::completedFuture).collect(Collectors.toList());
+			}
+		)) {
+			executor.submit("b0");
+			executor.submit("a0");
+			executor.submit("a1");
+			CompletableFuture<String> a2 = executor.submit("a2");
+			Assert.assertEquals(a2.get(), "a2");
+			Assert.assertEquals(batches, Collections.singletonList(
+				new AbstractMap.SimpleImmutableEntry<>("a", Arrays.asList("a0", "a1", "a2"))));
+		}
+		Assert.assertEquals(batches, Arrays.asList(
+			new AbstractMap.SimpleImmutableEntry<>("a", Arrays.asList("a0", "a1", "a2")),
+			new AbstractMap.SimpleImmutableEntry<>("b", Collections.singletonList("b0"))
+		));
+	}
+
+	@Test(timeOut = 5_000L, expectedExceptions = RejectedExecutionException.class)
+	public void submit_closed_rejected()
+	{
+		KeyedBatchWorkExecutor<Integer, Integer, Integer> executor = new KeyedBatchWorkExecutor<>(
+			new ClosingExecutor(Executors.newFixedThreadPool(1)),
+			(Integer v) -> v,
+			10,
+			(k, l) -> l.stream().map(CompletableFuture::completedFuture).collect(Collectors.toList())
+		);
+		executor.close();
+		executor.submit(1);
+	}
+}
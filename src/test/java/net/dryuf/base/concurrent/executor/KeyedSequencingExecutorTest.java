@@ -0,0 +1,104 @@
+package net.dryuf.base.concurrent.executor;
+
+import net.dryuf.base.concurrent.future.FutureUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+
+/**
+ * Tests for {@link KeyedSequencingExecutor}.
+ */
+public class KeyedSequencingExecutorTest
+{
+	@Test(timeOut = 100_000L)
+	public void execute_sequence_ordered()
+	{
+		for (int t = 0; t < 100; ++t) {
+			AtomicInteger[] sequences = new AtomicInteger[16];
+			AtomicInteger[] running = new AtomicInteger[16];
+			for (int k = 0; k < sequences.length; ++k) {
+				sequences[k] = new AtomicInteger();
+				running[k] = new AtomicInteger();
+			}
+			try (KeyedSequencingExecutor<Integer> executor = new KeyedSequencingExecutor<>(
+				new ClosingExecutor(Executors.newFixedThreadPool(4)))) {
+				for (int i = 0; i < 10000; ++i) {
+					int key = i%sequences.length;
+					int i0 = i/sequences.length;
+					executor.execute(key, () -> {
+						Assert.assertEquals(running[key].incrementAndGet(), 1);
+						Assert.assertEquals(sequences[key].getAndIncrement(), i0);
+						running[key].decrementAndGet();
+					});
+				}
+			}
+			for (AtomicInteger sequence: sequences) {
+				assertEquals(sequence.get(), 10000/sequences.length);
+			}
+		}
+	}
+
+	@Test(timeOut = 10_000L)
+	public void execute_differentKeys_parallel() throws Exception
+	{
+		ExecutorService delegate = Executors.newCachedThreadPool();
+		try (KeyedSequencingExecutor<Integer> executor = new KeyedSequencingExecutor<>(new ClosingExecutor(delegate))) {
+			CountDownLatch latch = new CountDownLatch(2);
+			CompletableFuture<Void> first = executor.submit(0, () -> { latch.countDown(); latch.await(); return null; });
+			CompletableFuture<Void> second = executor.submit(1, () -> { latch.countDown(); latch.await(); return null; });
+			first.get();
+			second.get();
+		}
+	}
+
+	@Test(timeOut = 10_000L)
+	public void execute_finished_queuesRemoved() throws Exception
+	{
+		KeyedSequencingExecutor<Integer> executor = new KeyedSequencingExecutor<>();
+		try {
+			for (int i = 0; i < 10000; ++i) {
+				executor.execute(i, () -> {});
+			}
+			assertEquals(FutureUtil.sneakyGet(executor.submit(0, () -> 5)), (Integer) 5);
+		}
+		finally {
+			executor.close();
+		}
+		Field queuesField = KeyedSequencingExecutor.class.getDeclaredField("queues");
+		queuesField.setAccessible(true);
+		assertTrue(((Map<?, ?>) queuesField.get(executor)).isEmpty());
+	}
+
+	@Test(timeOut = 10_000L)
+	public void execute_closed_rejected()
+	{
+		KeyedSequencingExecutor<Integer> executor = new KeyedSequencingExecutor<>();
+		executor.execute(0, () -> {});
+		executor.close();
+		expectThrows(RejectedExecutionException.class, () -> executor.execute(0, () -> {}));
+	}
+
+	@Test(timeOut = 10_000L)
+	public void execute_delegatedClosed_rejected()
+	{
+		ExecutorService delegate = Executors.newCachedThreadPool();
+		delegate.shutdown();
+		try (KeyedSequencingExecutor<Integer> executor = new KeyedSequencingExecutor<>(delegate)) {
+			expectThrows(RejectedExecutionException.class, () -> executor.execute(0, () -> {}));
+			expectThrows(RejectedExecutionException.class, () -> executor.execute(0, () -> {}));
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package net.dryuf.base.concurrent.executor;
+
+import net.dryuf.base.concurrent.future.FutureUtil;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.expectThrows;
+
+
+/**
+ * Tests for {@link LaneAffinityExecutor}.
+ */
+public class LaneAffinityExecutorTest
+{
+	@Test(timeOut = 10_000L)
+	public void affinity_sameKey_sameThread() throws Exception
+	{
+		Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<>());
+		try (LaneAffinityExecutor executor = new LaneAffinityExecutor(4, 1000)) {
+			CloseableExecutor affinity = executor.affinity("connection");
+			for (int i = 0; i < 100; ++i) {
+				affinity.execute(() -> threads.add(Thread.currentThread()));
+			}
+			affinity.close();
+		}
+		assertEquals(threads.size(), 1);
+	}
+
+	@Test(timeOut = 10_000L)
+	public void affinity_overloaded_handedOver() throws Exception
+	{
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch blocker = new CountDownLatch(1);
+		try (LaneAffinityExecutor executor = new LaneAffinityExecutor(2, 1)) {
+			CloseableExecutor affinity = executor.affinity("connection");
+			Thread blocked = FutureUtil.sneakyGet(affinity.submit(Thread::currentThread));
+			affinity.execute(() -> { started.countDown(); try { blocker.await(); } catch (InterruptedException e) { } });
+			started.await();
+			affinity.execute(() -> {});
+			affinity.execute(() -> {});
+			Thread other = FutureUtil.sneakyGet(affinity.submit(Thread::currentThread));
+			assertNotEquals(other, blocked);
+			blocker.countDown();
+		}
+	}
+
+	@Test(timeOut = 10_000L)
+	public void threadName_twoInstances_distinct() throws Exception
+	{
+		try (LaneAffinityExecutor one = new LaneAffinityExecutor(1, 16);
+		     LaneAffinityExecutor two = new LaneAffinityExecutor(1, 16)) {
+			String oneName = FutureUtil.sneakyGet(one.submit(() -> Thread.currentThread().getName()));
+			String twoName = FutureUtil.sneakyGet(two.submit(() -> Thread.currentThread().getName()));
+			assertNotEquals(oneName, twoName);
+		}
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void new_nonPositiveThreshold_rejected()
+	{
+		new LaneAffinityExecutor(2, 0);
+	}
+
+	@Test(timeOut = 10_000L)
+	public void execute_sequencing_ordered()
+	{
+		AtomicInteger sequence = new AtomicInteger();
+		try (LaneAffinityExecutor lanes = new LaneAffinityExecutor(4, 16)) {
+			try (SequencingExecutor executor = new SequencingExecutor(lanes.affinity(this))) {
+				for (int i = 0; i < 10_000; ++i) {
+					int i0 = i;
+					executor.execute(() -> assertEquals(sequence.getAndIncrement(), i0));
+				}
+			}
+		}
+		assertEquals(sequence.get(), 10_000);
+	}
+
+	@Test
+	public void execute_closed_rejected()
+	{
+		LaneAffinityExecutor executor = new LaneAffinityExecutor(2, 16);
+		executor.execute(() -> {});
+		executor.close();
+		expectThrows(RejectedExecutionException.class, () -> executor.execute(() -> {}));
+		expectThrows(RejectedExecutionException.class, () -> executor.affinity(this).execute(() -> {}));
+	}
+}
@@ -1,11 +1,13 @@
 package net.dryuf.base.concurrent.executor;
 
 import net.dryuf.base.concurrent.future.FutureUtil;
+import net.dryuf.base.function.ThrowingConsumer;
 import net.dryuf.base.function.ThrowingFunction;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
@@ -94,6 +96,56 @@ public class ResultSequencingExecutorTest
 		assertEquals(result, expected);
 	}
 
+	@Test(timeOut = 10_000L)
+	public void submitBatched_ordered_batched() throws Exception
+	{
+		List<Integer> result = new ArrayList<>();
+		List<Integer> batchSizes = new ArrayList<>();
+		CompletableFuture<Void> blocker = new CompletableFuture<>();
+		CompletableFuture<Void> last = null;
+		ThrowingConsumer<List<Integer>, RuntimeException> batchCompletor = (batch) -> {
+			batchSizes.add(batch.size());
+			result.addAll(batch);
+		};
+		try (CloseableExecutor executor = new ClosingExecutor(Executors.newFixedThreadPool(4));
+		     ResultSequencingExecutor rse = new ResultSequencingExecutor(executor)) {
+			rse.submitBatched(() -> { blocker.get(); return 0; }, batchCompletor);
+			for (int i = 1; i < 100; ++i) {
+				final int i0 = i;
+				last = rse.submitBatched(() -> i0, batchCompletor);
+			}
+			blocker.complete(null);
+			FutureUtil.sneakyGet(last);
+		}
+		assertEquals(result, IntStream.range(0, 100).boxed().collect(Collectors.toList()));
+		assertEquals(batchSizes.size() < 100, true, "Expected items batched: "+batchSizes);
+	}
+
+	@Test(timeOut = 10_000L)
+	public void submitBatched_taskFailure_excluded() throws Exception
+	{
+		List<Integer> result = new ArrayList<>();
+		ThrowingConsumer<List<Integer>, RuntimeException> batchCompletor = result::addAll;
+		try (ResultSequencingExecutor rse = new ResultSequencingExecutor()) {
+			CompletableFuture<Void> first = rse.submitBatched(() -> 0, batchCompletor);
+			CompletableFuture<Void> failed = rse.submitBatched(() -> { throw new IOException(); }, batchCompletor);
+			CompletableFuture<Void> third = rse.submitBatched(() -> 2, batchCompletor);
+			FutureUtil.sneakyGet(first);
+			expectThrows(IOException.class, () -> FutureUtil.sneakyGet(failed));
+			FutureUtil.sneakyGet(third);
+		}
+		assertEquals(result, Arrays.asList(0, 2));
+	}
+
+	@Test(timeOut = 10_000L)
+	public void submitBatched_completorFailure_propagated() throws Exception
+	{
+		try (ResultSequencingExecutor rse = new ResultSequencingExecutor()) {
+			CompletableFuture<Void> future = rse.submitBatched(() -> 0, (batch) -> { throw new IOException(); });
+			expectThrows(IOException.class, () -> FutureUtil.sneakyGet(future));
+		}
+	}
+
 	private Void doLittle()
 	{
 		littleVar *= 17;
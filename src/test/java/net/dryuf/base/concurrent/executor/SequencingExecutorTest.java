@@ -3,6 +3,10 @@ package net.dryuf.base.concurrent.executor;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -11,6 +15,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.expectThrows;
 import static org.testng.AssertJUnit.assertEquals;
@@ -116,4 +121,154 @@ public class SequencingExecutorTest
 		}
 		assertTrue(Thread.interrupted());
 	}
+
+	@Test(timeOut = 100_000L)
+	public void execute_boundedBlock_sequenced() throws InterruptedException
+	{
+		for (int t = 0; t < 20; ++t) {
+			AtomicInteger sequence = new AtomicInteger();
+			try (SequencingExecutor executor = new SequencingExecutor(
+				CommonPoolExecutor.getInstance(), 16, SequencingExecutor.OverflowPolicy.BLOCK)) {
+				for (int i = 0; i < 10000; ++i) {
+					int i0 = i;
+					executor.execute(() -> {
+						Assert.assertEquals(sequence.getAndIncrement(), i0);
+					});
+				}
+			}
+			assertEquals(sequence.get(), 10000);
+		}
+	}
+
+	@Test(timeOut = 10_000L)
+	public void execute_boundedReject_rejected() throws InterruptedException
+	{
+		CountDownLatch blocker = new CountDownLatch(1);
+		AtomicInteger counter = new AtomicInteger();
+		try (SequencingExecutor executor = new SequencingExecutor(
+			CommonPoolExecutor.getInstance(), 2, SequencingExecutor.OverflowPolicy.REJECT)) {
+			executor.execute(() -> { try { blocker.await(); } catch (InterruptedException e) { } });
+			executor.execute(counter::incrementAndGet);
+			expectThrows(RejectedExecutionException.class, () -> executor.execute(counter::incrementAndGet));
+			blocker.countDown();
+		}
+		assertEquals(counter.get(), 1);
+	}
+
+	@Test(timeOut = 10_000L)
+	public void executeAsync_bounded_admittedLater() throws Exception
+	{
+		CountDownLatch blocker = new CountDownLatch(1);
+		List<Integer> result = new ArrayList<>();
+		try (SequencingExecutor executor = new SequencingExecutor(
+			CommonPoolExecutor.getInstance(), 2, SequencingExecutor.OverflowPolicy.ASYNC)) {
+			CompletableFuture<Void> first = executor.executeAsync(() -> {
+				try { blocker.await(); } catch (InterruptedException e) { }
+				result.add(0);
+			});
+			CompletableFuture<Void> second = executor.executeAsync(() -> result.add(1));
+			CompletableFuture<Void> third = executor.executeAsync(() -> result.add(2));
+			executor.execute(() -> result.add(3));
+			assertTrue(first.isDone());
+			assertTrue(second.isDone());
+			assertFalse(third.isDone());
+			blocker.countDown();
+			third.get();
+		}
+		assertEquals(result, Arrays.asList(0, 1, 2, 3));
+	}
+
+	@Test(timeOut = 100_000L)
+	public void executeAsync_closeWhileAdmitting_allAdmitted() throws Exception
+	{
+		for (int t = 0; t < 200; ++t) {
+			AtomicInteger counter = new AtomicInteger();
+			List<CompletableFuture<Void>> tickets = new ArrayList<>();
+			try (SequencingExecutor executor = new SequencingExecutor(
+				CommonPoolExecutor.getInstance(), 2, SequencingExecutor.OverflowPolicy.ASYNC)) {
+				for (int i = 0; i < 100; ++i) {
+					tickets.add(executor.executeAsync(counter::incrementAndGet));
+				}
+			}
+			for (CompletableFuture<Void> ticket: tickets) {
+				ticket.get();
+			}
+			assertEquals(counter.get(), 100);
+		}
+	}
+
+	@Test(timeOut = 10_000L)
+	public void execute_boundedBlockInterrupted_keepsInterrupt() throws Exception
+	{
+		CountDownLatch blocker = new CountDownLatch(1);
+		try (SequencingExecutor executor = new SequencingExecutor(
+			CommonPoolExecutor.getInstance(), 1, SequencingExecutor.OverflowPolicy.BLOCK)) {
+			executor.execute(() -> { try { blocker.await(); } catch (InterruptedException e) { } });
+			Thread.currentThread().interrupt();
+			expectThrows(RejectedExecutionException.class, () -> executor.execute(() -> {}));
+			assertTrue(Thread.interrupted());
+			blocker.countDown();
+		}
+	}
+
+	@Test(timeOut = 100_000L)
+	public void execute_drainBudget_sequenced() throws InterruptedException
+	{
+		for (int t = 0; t < 100; ++t) {
+			AtomicInteger sequence = new AtomicInteger();
+			try (SequencingExecutor executor = new SequencingExecutor(
+				CommonPoolExecutor.getInstance(), Integer.MAX_VALUE, SequencingExecutor.OverflowPolicy.BLOCK,
+				7, Long.MAX_VALUE)) {
+				for (int i = 0; i < 1000; ++i) {
+					int i0 = i;
+					executor.execute(() -> {
+						Assert.assertEquals(sequence.getAndIncrement(), i0);
+					});
+				}
+			}
+			assertEquals(sequence.get(), 1000);
+		}
+	}
+
+	@Test(timeOut = 10_000L)
+	public void execute_drainBudget_yieldsThread() throws Exception
+	{
+		ExecutorService delegate = Executors.newSingleThreadExecutor();
+		try (SequencingExecutor busy = new SequencingExecutor(
+				new ClosingExecutor(delegate), Integer.MAX_VALUE, SequencingExecutor.OverflowPolicy.BLOCK,
+				Integer.MAX_VALUE, 1_000_000L);
+		     SequencingExecutor other = new SequencingExecutor(delegate)) {
+			CountDownLatch otherRun = new CountDownLatch(1);
+			AtomicInteger busyCount = new AtomicInteger();
+			Runnable[] resubmit = new Runnable[1];
+			resubmit[0] = () -> {
+				busyCount.incrementAndGet();
+				if (otherRun.getCount() != 0) {
+					busy.execute(resubmit[0]);
+				}
+			};
+			busy.execute(resubmit[0]);
+			other.execute(otherRun::countDown);
+			otherRun.await();
+		}
+	}
+
+	@Test(timeOut = 100_000L)
+	public void execute_drainBudgetBounded_sequenced() throws InterruptedException
+	{
+		for (int t = 0; t < 100; ++t) {
+			AtomicInteger sequence = new AtomicInteger();
+			try (SequencingExecutor executor = new SequencingExecutor(
+				CommonPoolExecutor.getInstance(), 5, SequencingExecutor.OverflowPolicy.BLOCK,
+				3, Long.MAX_VALUE)) {
+				for (int i = 0; i < 1000; ++i) {
+					int i0 = i;
+					executor.execute(() -> {
+						Assert.assertEquals(sequence.getAndIncrement(), i0);
+					});
+				}
+			}
+			assertEquals(sequence.get(), 1000);
+		}
+	}
 }
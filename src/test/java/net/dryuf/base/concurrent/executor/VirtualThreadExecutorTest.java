@@ -0,0 +1,76 @@
+package net.dryuf.base.concurrent.executor;
+
+import net.dryuf.base.concurrent.future.FutureUtil;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.expectThrows;
+
+
+/**
+ * Tests for {@link VirtualThreadExecutor}.
+ */
+public class VirtualThreadExecutorTest
+{
+	@Test
+	public void constructor_unsupported_throws()
+	{
+		if (VirtualThreadExecutor.isSupported()) {
+			throw new SkipException("Virtual threads supported by this JVM");
+		}
+		expectThrows(UnsupportedOperationException.class, VirtualThreadExecutor::new);
+	}
+
+	@Test(timeOut = 10_000L)
+	public void submit_blocking_parallel() throws Exception
+	{
+		skipIfUnsupported();
+		List<CompletableFuture<Integer>> futures = new ArrayList<>();
+		try (CloseableExecutor executor = new VirtualThreadExecutor()) {
+			for (int i = 0; i < 10_000; ++i) {
+				int i0 = i;
+				futures.add(executor.submit(() -> { Thread.sleep(100); return i0; }));
+			}
+		}
+		for (int i = 0; i < futures.size(); ++i) {
+			assertEquals(FutureUtil.sneakyGet(futures.get(i)), (Integer) i);
+		}
+	}
+
+	@Test(timeOut = 10_000L)
+	public void execute_sequencing_ordered()
+	{
+		skipIfUnsupported();
+		AtomicInteger sequence = new AtomicInteger();
+		try (SequencingExecutor executor = new SequencingExecutor(new VirtualThreadExecutor())) {
+			for (int i = 0; i < 10_000; ++i) {
+				int i0 = i;
+				executor.execute(() -> assertEquals(sequence.getAndIncrement(), i0));
+			}
+		}
+		assertEquals(sequence.get(), 10_000);
+	}
+
+	@Test
+	public void execute_closed_rejected()
+	{
+		skipIfUnsupported();
+		CloseableExecutor executor = new VirtualThreadExecutor();
+		executor.close();
+		expectThrows(RejectedExecutionException.class, () -> executor.execute(() -> {}));
+	}
+
+	private static void skipIfUnsupported()
+	{
+		if (!VirtualThreadExecutor.isSupported()) {
+			throw new SkipException("Virtual threads not supported by this JVM");
+		}
+	}
+}
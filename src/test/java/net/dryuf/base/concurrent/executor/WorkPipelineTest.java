@@ -0,0 +1,124 @@
+package net.dryuf.base.concurrent.executor;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+
+
+public class WorkPipelineTest
+{
+	@Test(timeOut = 10_000L)
+	public void submit_multipleStages_processedInOrder() throws Exception
+	{
+		List<CompletableFuture<String>> futures = new ArrayList<>();
+		WorkPipeline<String, String> pipeline = WorkPipeline.<String>builder(new ClosingExecutor(Executors.newFixedThreadPool(2)))
+			.stage("parse", 10, 100, (List<String> l) -> l.stream().map(Integer::parseInt).collect(Collectors.toList()))
+			.stage("square", 7, 50, (List<Integer> l) -> l.stream().map(v -> (long) v*v).collect(Collectors.toList()))
+			.stage("format", 13, 20, (List<Long> l) -> l.stream().map(v -> "v"+v).collect(Collectors.toList()))
+			.build();
+		try (WorkPipeline<String, String> pipeline0 = pipeline) {
+			for (int i = 0; i < 10_000; ++i) {
+				futures.add(pipeline0.submit(Integer.toString(i)));
+			}
+		}
+		for (int i = 0; i < 10_000; ++i) {
+			Assert.assertEquals(futures.get(i).getNow(null), "v"+(long) i*i);
+		}
+		Assert.assertEquals(pipeline.getStageMetrics().size(), 3);
+		for (WorkPipeline.StageMetrics metrics: pipeline.getStageMetrics()) {
+			Assert.assertEquals(metrics.getProcessedCount(), 10_000);
+			Assert.assertTrue(metrics.getBatchCount() > 0);
+			Assert.assertEquals(metrics.getQueueSize(), 0);
+		}
+		Assert.assertEquals(pipeline.getStageMetrics().get(1).getName(), "square");
+	}
+
+	@Test(timeOut = 10_000L)
+	public void submit_slowStage_backpressured() throws Exception
+	{
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger submitted = new AtomicInteger();
+		List<CompletableFuture<Integer>> futures = new ArrayList<>();
+		try (WorkPipeline<Integer, Integer> pipeline = WorkPipeline.<Integer>builder(new ClosingExecutor(Executors.newFixedThreadPool(2)))
+			.stage("fast", 1, 2, (List<Integer> l) -> l)
+			.stage("slow", 1, 2, (List<Integer> l) -> { release.await(); return l; })
+			.build()) {
+			Thread producer = new Thread(() -> {
+				for (int i = 0; i < 20; ++i) {
+					futures.add(pipeline.submit(i));
+					submitted.incrementAndGet();
+				}
+			});
+			producer.start();
+			Thread.sleep(200);
+			Assert.assertTrue(submitted.get() < 20, "Expected producer blocked: "+submitted.get());
+			release.countDown();
+			producer.join();
+		}
+		Assert.assertEquals(futures.size(), 20);
+		for (int i = 0; i < 20; ++i) {
+			Assert.assertEquals((int) futures.get(i).getNow(null), i);
+		}
+	}
+
+	@Test(timeOut = 10_000L)
+	public void submit_tinyQueuesSingleThread_completed() throws Exception
+	{
+		List<CompletableFuture<Integer>> futures = new ArrayList<>();
+		try (WorkPipeline<Integer, Integer> pipeline = WorkPipeline.<Integer>builder(new ClosingExecutor(Executors.newFixedThreadPool(1)))
+			.stage("one", 3, 1, (List<Integer> l) -> l.stream().map(v -> v+1).collect(Collectors.toList()))
+			.stage("two", 1, 1, (List<Integer> l) -> l.stream().map(v -> v+1).collect(Collectors.toList()))
+			.stage("three", 2, 1, (List<Integer> l) -> l.stream().map(v -> v+1).collect(Collectors.toList()))
+			.build()) {
+			for (int i = 0; i < 5_000; ++i) {
+				futures.add(pipeline.submit(i));
+			}
+		}
+		for (int i = 0; i < 5_000; ++i) {
+			Assert.assertEquals((int) futures.get(i).getNow(null), i+3);
+		}
+	}
+
+	@Test(timeOut = 10_000L)
+	public void submit_stageFails_batchFailed() throws Exception
+	{
+		try (WorkPipeline<Integer, Integer> pipeline = WorkPipeline.<Integer>builder(new ClosingExecutor(Executors.newFixedThreadPool(1)))
+			.stage("check", 1, 10, (List<Integer> l) -> {
+				if (l.get(0) < 0) {
+					throw new IOException("negative");
+				}
+				return l;
+			})
+			.stage("negate", 1, 10, (List<Integer> l) -> l.stream().map(v -> -v).collect(Collectors.toList()))
+			.build()) {
+			CompletableFuture<Integer> failed = pipeline.submit(-1);
+			CompletableFuture<Integer> succeeded = pipeline.submit(1);
+			ExecutionException ex = Assert.expectThrows(ExecutionException.class, failed::get);
+			assertThat(ex.getCause(), instanceOf(IOException.class));
+			Assert.assertEquals((int) succeeded.get(), -1);
+		}
+	}
+
+	@Test(timeOut = 10_000L, expectedExceptions = RejectedExecutionException.class)
+	public void submit_closed_rejected()
+	{
+		WorkPipeline<Integer, Integer> pipeline = WorkPipeline.<Integer>builder(new ClosingExecutor(Executors.newFixedThreadPool(1)))
+			.stage("identity", 1, 10, (List<Integer> l) -> l)
+			.build();
+		pipeline.close();
+		pipeline.submit(1);
+	}
+}
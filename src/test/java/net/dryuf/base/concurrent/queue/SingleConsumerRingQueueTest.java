@@ -0,0 +1,239 @@
+/*
+ * Copyright 2015-2022 Zbynek Vyskovsky mailto:kvr000@gmail.com http://github.com/kvr000/ https://github.com/dryuf/ https://www.linkedin.com/in/zbynek-vyskovsky/
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dryuf.base.concurrent.queue;
+
+import net.dryuf.base.concurrent.executor.DirectExecutor;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+
+/**
+ * Tests for {@link SingleConsumerRingQueue}.
+ */
+public class SingleConsumerRingQueueTest
+{
+	@Test
+	public void testAdd()
+	{
+		Runnable restarter = mock(Runnable.class);
+		SingleConsumerRingQueue<Integer> subject = new SingleConsumerRingQueue<>(16, restarter, DirectExecutor.getInstance());
+		verify(restarter, times(0)).run();
+		subject.add(0);
+		verify(restarter, times(1)).run();
+		subject.add(1);
+		verify(restarter, times(1)).run();
+		subject.add(1);
+		verify(restarter, times(1)).run();
+	}
+
+	@Test
+	public void testOrder()
+	{
+		Runnable restarter = mock(Runnable.class);
+		SingleConsumerRingQueue<Integer> subject = new SingleConsumerRingQueue<>(16, restarter, DirectExecutor.getInstance());
+		subject.add(0);
+		subject.add(1);
+		subject.add(2);
+		verify(restarter, times(1)).run();
+		try (SingleConsumerRingQueue<Integer>.Consumer consumer = subject.consume()) {
+			Assert.assertEquals(consumer.next(), (Integer) 0);
+			Assert.assertEquals(consumer.next(), (Integer) 1);
+			Assert.assertEquals(consumer.next(), (Integer) 2);
+			Assert.assertEquals(consumer.next(), null);
+		}
+	}
+
+	@Test
+	public void testParallelOrder()
+	{
+		Runnable consumerCallback = mock(Runnable.class);
+		SingleConsumerRingQueue<Integer> subject = new SingleConsumerRingQueue<>(16, consumerCallback, DirectExecutor.getInstance());
+		subject.add(0);
+		subject.add(1);
+		subject.add(2);
+		verify(consumerCallback, times(1)).run();
+		try (SingleConsumerRingQueue<Integer>.Consumer consumer = subject.consume()) {
+			Assert.assertEquals(consumer.next(), (Integer) 0);
+			subject.add(3);
+			subject.add(4);
+			verify(consumerCallback, times(1)).run();
+			Assert.assertEquals(consumer.next(), (Integer) 1);
+			Assert.assertEquals(consumer.next(), (Integer) 2);
+			Assert.assertEquals(consumer.next(), (Integer) 3);
+			Assert.assertEquals(consumer.next(), (Integer) 4);
+			Assert.assertEquals(consumer.next(), null);
+		}
+	}
+
+	@Test
+	public void testPending()
+	{
+		Runnable consumerCallback = mock(Runnable.class);
+		SingleConsumerRingQueue<Integer> subject = new SingleConsumerRingQueue<>(16, consumerCallback, DirectExecutor.getInstance());
+		subject.add(0);
+		subject.add(1);
+		subject.add(2);
+		verify(consumerCallback, times(1)).run();
+		try (SingleConsumerRingQueue<Integer>.Consumer consumer = subject.consume()) {
+			Assert.assertEquals(consumer.next(), (Integer) 0);
+			subject.add(3);
+			subject.add(4);
+			verify(consumerCallback, times(1)).run();
+		}
+		verify(consumerCallback, times(2)).run();
+		try (SingleConsumerRingQueue<Integer>.Consumer consumer = subject.consume()) {
+			Assert.assertEquals(consumer.next(), (Integer) 1);
+			Assert.assertEquals(consumer.next(), (Integer) 2);
+			Assert.assertEquals(consumer.next(), (Integer) 3);
+			Assert.assertEquals(consumer.next(), (Integer) 4);
+			Assert.assertEquals(consumer.next(), null);
+		}
+	}
+
+	@Test
+	public void testNewlyAdded()
+	{
+		Runnable consumerCallback = mock(Runnable.class);
+		SingleConsumerRingQueue<Integer> subject = new SingleConsumerRingQueue<>(16, consumerCallback, DirectExecutor.getInstance());
+		subject.add(0);
+		subject.add(1);
+		subject.add(2);
+		verify(consumerCallback, times(1)).run();
+		try (SingleConsumerRingQueue<Integer>.Consumer consumer = subject.consume()) {
+			Assert.assertEquals(consumer.next(), (Integer) 0);
+			Assert.assertEquals(consumer.next(), (Integer) 1);
+			Assert.assertEquals(consumer.next(), (Integer) 2);
+		}
+		subject.add(3);
+		verify(consumerCallback, times(2)).run();
+		subject.add(4);
+		verify(consumerCallback, times(2)).run();
+		try (SingleConsumerRingQueue<Integer>.Consumer consumer = subject.consume()) {
+			Assert.assertEquals(consumer.next(), (Integer) 3);
+			Assert.assertEquals(consumer.next(), (Integer) 4);
+			Assert.assertEquals(consumer.next(), null);
+			verify(consumerCallback, times(2)).run();
+		}
+		verify(consumerCallback, times(2)).run();
+	}
+
+	@Test
+	public void testNextOrClose()
+	{
+		Runnable consumerCallback = mock(Runnable.class);
+		SingleConsumerRingQueue<Integer> subject = new SingleConsumerRingQueue<>(16, consumerCallback, DirectExecutor.getInstance());
+		subject.add(0);
+		subject.add(1);
+		verify(consumerCallback, times(1)).run();
+		try (SingleConsumerRingQueue<Integer>.Consumer consumer = subject.consume()) {
+			Assert.assertEquals(consumer.nextOrClose(), (Integer) 0);
+			Assert.assertEquals(consumer.nextOrClose(), (Integer) 1);
+			subject.add(2);
+			Assert.assertEquals(consumer.nextOrClose(), (Integer) 2);
+			Assert.assertEquals(consumer.nextOrClose(), null);
+			subject.add(3);
+			verify(consumerCallback, times(2)).run();
+		}
+		verify(consumerCallback, times(2)).run();
+		subject.add(4);
+		verify(consumerCallback, times(2)).run();
+		try (SingleConsumerRingQueue<Integer>.Consumer consumer = subject.consume()) {
+			Assert.assertEquals(consumer.nextOrClose(), (Integer) 3);
+			Assert.assertEquals(consumer.nextOrClose(), (Integer) 4);
+			Assert.assertEquals(consumer.nextOrClose(), null);
+		}
+	}
+
+	@Test
+	public void testFull()
+	{
+		Runnable consumerCallback = mock(Runnable.class);
+		SingleConsumerRingQueue<Integer> subject = new SingleConsumerRingQueue<>(3, consumerCallback, DirectExecutor.getInstance());
+		Assert.assertEquals(subject.getCapacity(), 4);
+		for (int i = 0; i < 4; ++i) {
+			Assert.assertTrue(subject.offer(i));
+		}
+		Assert.assertFalse(subject.offer(4));
+		Assert.expectThrows(IllegalStateException.class, () -> subject.add(4));
+		try (SingleConsumerRingQueue<Integer>.Consumer consumer = subject.consume()) {
+			Assert.assertEquals(consumer.next(), (Integer) 0);
+			Assert.assertTrue(subject.offer(4));
+			Assert.assertFalse(subject.offer(5));
+			for (int i = 1; i <= 4; ++i) {
+				Assert.assertEquals(consumer.next(), (Integer) i);
+			}
+			Assert.assertEquals(consumer.next(), null);
+		}
+	}
+
+	@Test(timeOut = 10_000L)
+	public void testConcurrentProducers() throws Exception
+	{
+		List<Integer> consumed = new ArrayList<>();
+		CountDownLatch finished = new CountDownLatch(40_000);
+		ExecutorService consumerExecutor = Executors.newSingleThreadExecutor();
+		try {
+			SingleConsumerRingQueue<Integer> subject = new SingleConsumerRingQueue<Integer>(64, (queue) -> {
+				try (SingleConsumerRingQueue<Integer>.Consumer consumer = queue.consume()) {
+					for (Integer item; (item = consumer.nextOrClose()) != null; ) {
+						consumed.add(item);
+						finished.countDown();
+					}
+				}
+			}, consumerExecutor);
+			List<Thread> producers = new ArrayList<>();
+			for (int t = 0; t < 4; ++t) {
+				int base = t*10_000;
+				Thread producer = new Thread(() -> {
+					for (int i = 0; i < 10_000; ++i) {
+						while (!subject.offer(base+i)) {
+							Thread.yield();
+						}
+					}
+				});
+				producer.start();
+				producers.add(producer);
+			}
+			for (Thread producer: producers) {
+				producer.join();
+			}
+			finished.await();
+		}
+		finally {
+			consumerExecutor.shutdown();
+		}
+		Assert.assertEquals(consumed.size(), 40_000);
+		int[] last = new int[4];
+		Arrays.fill(last, -1);
+		for (int v: consumed) {
+			int t = v/10_000;
+			Assert.assertTrue(v%10_000 > last[t], "Expected per producer order: "+v);
+			last[t] = v%10_000;
+		}
+	}
+}